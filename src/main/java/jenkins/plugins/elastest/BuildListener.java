@@ -25,7 +25,6 @@ package jenkins.plugins.elastest;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -110,6 +109,16 @@ public class BuildListener extends RunListener<Run> {
             }
         }
 
+        if (elasTestBuild != null && elasTestBuild.getWriter() != null) {
+            // The console of the build is still open to show the progress
+            elasTestBuild.getWriter().drain(getDrainTimeoutMillis(),
+                    listener.getLogger());
+        }
+    }
+
+    private static long getDrainTimeoutMillis() {
+        return TimeUnit.SECONDS.toMillis(ElasTestInstallation
+                .getLogstashDescriptor().getLogDrainTimeoutSeconds());
     }
 
     @Override
@@ -164,16 +173,27 @@ public class BuildListener extends RunListener<Run> {
                         .get(build.getFullDisplayName()).getWriter() != null) {
                     elasTestService.manageEIMEndIfNecessary(build, elasTestBuild.getEnvVars());
 
-                    ExecutorService executor = elasTestService.getElasTestBuilds()
-                            .get(build.getFullDisplayName()).getWriter().getExecutor();
-                    if (!executor.isTerminated()) {
-                        executor.shutdown();
-                        try {
-                            executor.awaitTermination(60, TimeUnit.SECONDS);
-                        } catch (InterruptedException e) {
-                            LOG.warn("Timeout sending logs to ElasTest");
-                        }
+                    ElasTestWriter writer = elasTestService.getElasTestBuilds()
+                            .get(build.getFullDisplayName()).getWriter();
+                    // Sends the last lines of the build, if any time is left
+                    if (!writer.drain(getDrainTimeoutMillis(), null)) {
+                        LOG.warn("[elastest-plugin]: {} log lines ({} KB) of {} not sent in time",
+                                writer.getPendingLines(),
+                                writer.getPendingBytes() / 1024,
+                                build.getFullDisplayName());
+                    }
+                    long spooled = writer.release(ElasTestWriter.LeftoverPolicy
+                            .valueOf(ElasTestInstallation.getLogstashDescriptor()
+                                    .getLogLeftoverPolicy()));
+                    if (spooled > 0) {
+                        LOG.info("[elastest-plugin]: {} log lines of {} will be sent in the background",
+                                spooled, build.getFullDisplayName());
+                    }
+                    if (writer.getDroppedLines() > 0) {
+                        LOG.warn("[elastest-plugin]: {} log lines of {} were not sent to ElasTest",
+                                writer.getDroppedLines(), build.getFullDisplayName());
                     }
+                    externalJob.setDroppedLogLines(writer.getDroppedLines());
                 }
                 elasTestService.finishElasTestTJobExecution(
                         elasTestService.getExternalJobByBuildFullName(build.getFullDisplayName()));
@@ -48,12 +48,17 @@ public class ConsoleLogFilterImpl extends ConsoleLogFilter
     
     private final transient Run<?, ?> build;
     private ElasTestWriter writer;
+    private final int flushIntervalMillis;
+    private final int maxLineBytes;
+    private final ElasTestOutputStream.LongLinePolicy longLinePolicy;
 
     public ConsoleLogFilterImpl(Run<?, ?> build,
             ElasTestWriter writer) {
         this.build = build;
         this.writer = writer;
-        
+        this.flushIntervalMillis = writer.getConsoleFlushIntervalMillis();
+        this.maxLineBytes = writer.getMaxLineBytes();
+        this.longLinePolicy = writer.getLongLinePolicy();
     }
 
     @SuppressWarnings("rawtypes")
@@ -62,8 +67,10 @@ public class ConsoleLogFilterImpl extends ConsoleLogFilter
             throws IOException, InterruptedException {
         LOG.debug("[elastest-plugin]: Executing decorate logger");
 
+        ElasTestWriter buildWriter = getElasTestWriter(build, logger, null);
         ElasTestOutputStream los = new ElasTestOutputStream(logger,
-                getElasTestWriter(build, logger, null));
+                buildWriter, buildWriter.getMetrics(), flushIntervalMillis);
+        los.setLineLimit(maxLineBytes, longLinePolicy);
         return los;
     }
 
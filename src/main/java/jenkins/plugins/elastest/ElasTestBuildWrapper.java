@@ -30,10 +30,13 @@ import static org.slf4j.LoggerFactory.getLogger;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map.Entry;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.slf4j.Logger;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 import hudson.EnvVars;
 import hudson.Extension;
@@ -45,6 +48,7 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
+import hudson.util.FormValidation;
 import jenkins.plugins.elastest.action.ElasTestItemMenuAction;
 import jenkins.plugins.elastest.json.ElasTestBuild;
 import jenkins.plugins.elastest.json.ExternalJob;
@@ -64,6 +68,14 @@ public class ElasTestBuildWrapper extends SimpleBuildWrapper {
 
     private boolean eus;
 
+    private String logIncludePattern = "";
+
+    private String logExcludePattern = "";
+
+    private int logMaxLinesPerSecond;
+
+    private long logMaxBytes;
+
     /**
      * Create a new {@link ElasTestBuildWrapper}.
      */
@@ -82,6 +94,42 @@ public class ElasTestBuildWrapper extends SimpleBuildWrapper {
         this.eus = eus;
     }
 
+    public String getLogIncludePattern() {
+        return logIncludePattern;
+    }
+
+    @DataBoundSetter
+    public void setLogIncludePattern(String logIncludePattern) {
+        this.logIncludePattern = logIncludePattern;
+    }
+
+    public String getLogExcludePattern() {
+        return logExcludePattern;
+    }
+
+    @DataBoundSetter
+    public void setLogExcludePattern(String logExcludePattern) {
+        this.logExcludePattern = logExcludePattern;
+    }
+
+    public int getLogMaxLinesPerSecond() {
+        return logMaxLinesPerSecond;
+    }
+
+    @DataBoundSetter
+    public void setLogMaxLinesPerSecond(int logMaxLinesPerSecond) {
+        this.logMaxLinesPerSecond = logMaxLinesPerSecond;
+    }
+
+    public long getLogMaxBytes() {
+        return logMaxBytes;
+    }
+
+    @DataBoundSetter
+    public void setLogMaxBytes(long logMaxBytes) {
+        this.logMaxBytes = logMaxBytes;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -155,6 +203,8 @@ public class ElasTestBuildWrapper extends SimpleBuildWrapper {
             LOG.debug("[elastest-plugin]: Creating a new writer");
             elasTestWriter = new ElasTestWriter(build, null, elasTestService
                     .getExternalJobByBuildFullName(build.getFullDisplayName()));
+            elasTestWriter.setLogFilter(LogFilter.create(logIncludePattern,
+                    logExcludePattern, logMaxLinesPerSecond, logMaxBytes));
             elasTestService.getElasTestBuilds().get(build.getFullDisplayName())
                     .setWriter(elasTestWriter);
         }
@@ -197,5 +247,24 @@ public class ElasTestBuildWrapper extends SimpleBuildWrapper {
         public boolean isApplicable(AbstractProject<?, ?> item) {
             return true;
         }
+
+        public FormValidation doCheckLogIncludePattern(
+                @QueryParameter String value) {
+            return checkPattern(value);
+        }
+
+        public FormValidation doCheckLogExcludePattern(
+                @QueryParameter String value) {
+            return checkPattern(value);
+        }
+
+        private FormValidation checkPattern(String value) {
+            try {
+                Pattern.compile(value);
+                return FormValidation.ok();
+            } catch (PatternSyntaxException e) {
+                return FormValidation.error(e.getDescription());
+            }
+        }
     }
 }
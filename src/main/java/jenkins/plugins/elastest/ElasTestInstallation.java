@@ -26,6 +26,8 @@ package jenkins.plugins.elastest;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -39,7 +41,10 @@ import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolProperty;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
+import jenkins.plugins.elastest.submitters.SubmitterSettings;
 import jenkins.plugins.elastest.utils.Utils;
 import net.sf.json.JSONObject;
 
@@ -73,6 +78,29 @@ public class ElasTestInstallation extends ToolInstallation {
         public String username;
         public String password;
         public String elasTestVersion;
+        public int logBatchMaxLines;
+        public int logBatchMaxBytes;
+        public int logBatchLingerMillis;
+        public int maxConnectionsPerRoute;
+        public int connectionIdleTimeout;
+        public int logBufferCapacity;
+        public String logOverflowPolicy;
+        public boolean compressLogs;
+        public int compressionThreshold;
+        public int logDispatcherThreads;
+        public String submitterType;
+        public Boolean mergeMultilineLogs;
+        public String logMultilinePattern;
+        public int logMultilineTimeoutMillis;
+        public int logMultilineMaxLines;
+        public int logDrainTimeoutSeconds;
+        public String logLeftoverPolicy;
+        public boolean coalesceConsoleFlushes;
+        public int consoleFlushIntervalMillis;
+        public Boolean adaptiveBatchSize;
+        public boolean collapseRepeatedLines;
+        public int logMaxLineBytes;
+        public String logLongLinePolicy;
 
         public Descriptor() {
             super();
@@ -228,5 +256,298 @@ public class ElasTestInstallation extends ToolInstallation {
         public void setElasTestVersion(String elasTestVersion) {
             this.elasTestVersion = elasTestVersion;
         }
+
+        public int getLogBatchMaxLines() {
+            return logBatchMaxLines > 0 ? logBatchMaxLines
+                    : LogBuffer.DEFAULT_MAX_LINES;
+        }
+
+        public void setLogBatchMaxLines(int logBatchMaxLines) {
+            this.logBatchMaxLines = logBatchMaxLines;
+        }
+
+        public int getLogBatchMaxBytes() {
+            return logBatchMaxBytes > 0 ? logBatchMaxBytes
+                    : LogBuffer.DEFAULT_MAX_BYTES;
+        }
+
+        public void setLogBatchMaxBytes(int logBatchMaxBytes) {
+            this.logBatchMaxBytes = logBatchMaxBytes;
+        }
+
+        public int getLogBatchLingerMillis() {
+            return logBatchLingerMillis > 0 ? logBatchLingerMillis
+                    : LogBuffer.DEFAULT_LINGER_MILLIS;
+        }
+
+        public void setLogBatchLingerMillis(int logBatchLingerMillis) {
+            this.logBatchLingerMillis = logBatchLingerMillis;
+        }
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute > 0 ? maxConnectionsPerRoute
+                    : SubmitterSettings.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        }
+
+        public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        public int getConnectionIdleTimeout() {
+            return connectionIdleTimeout > 0 ? connectionIdleTimeout
+                    : SubmitterSettings.DEFAULT_CONNECTION_IDLE_TIMEOUT;
+        }
+
+        public void setConnectionIdleTimeout(int connectionIdleTimeout) {
+            this.connectionIdleTimeout = connectionIdleTimeout;
+        }
+
+        public int getLogBufferCapacity() {
+            return logBufferCapacity > 0 ? logBufferCapacity
+                    : LogBuffer.DEFAULT_CAPACITY;
+        }
+
+        public void setLogBufferCapacity(int logBufferCapacity) {
+            this.logBufferCapacity = logBufferCapacity;
+        }
+
+        public String getLogOverflowPolicy() {
+            for (LogBuffer.OverflowPolicy policy : LogBuffer.OverflowPolicy
+                    .values()) {
+                if (policy.name().equals(logOverflowPolicy)) {
+                    return logOverflowPolicy;
+                }
+            }
+            return LogBuffer.OverflowPolicy.DROP_OLDEST.name();
+        }
+
+        public void setLogOverflowPolicy(String logOverflowPolicy) {
+            this.logOverflowPolicy = logOverflowPolicy;
+        }
+
+        public ListBoxModel doFillLogOverflowPolicyItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (LogBuffer.OverflowPolicy policy : LogBuffer.OverflowPolicy
+                    .values()) {
+                items.add(new ListBoxModel.Option(policy.name(), policy.name(),
+                        policy.name().equals(getLogOverflowPolicy())));
+            }
+            return items;
+        }
+
+        public boolean isCompressLogs() {
+            return compressLogs;
+        }
+
+        public void setCompressLogs(boolean compressLogs) {
+            this.compressLogs = compressLogs;
+        }
+
+        public int getCompressionThreshold() {
+            return compressionThreshold > 0 ? compressionThreshold
+                    : SubmitterSettings.DEFAULT_COMPRESSION_THRESHOLD;
+        }
+
+        public void setCompressionThreshold(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+        }
+
+        public int getLogDispatcherThreads() {
+            return logDispatcherThreads > 0 ? logDispatcherThreads
+                    : LogDispatcher.DEFAULT_THREADS;
+        }
+
+        public void setLogDispatcherThreads(int logDispatcherThreads) {
+            this.logDispatcherThreads = logDispatcherThreads;
+        }
+
+        public String getSubmitterType() {
+            for (SubmitterType type : SubmitterType.values()) {
+                if (type.name().equals(submitterType)) {
+                    return submitterType;
+                }
+            }
+            return SubmitterType.LOGSTASH.name();
+        }
+
+        public void setSubmitterType(String submitterType) {
+            this.submitterType = submitterType;
+        }
+
+        public ListBoxModel doFillSubmitterTypeItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add(new ListBoxModel.Option("Logstash (blocking)",
+                    SubmitterType.LOGSTASH.name(),
+                    SubmitterType.LOGSTASH.name().equals(getSubmitterType())));
+            items.add(new ListBoxModel.Option("Logstash (non-blocking)",
+                    SubmitterType.LOGSTASH_ASYNC.name(),
+                    SubmitterType.LOGSTASH_ASYNC.name()
+                            .equals(getSubmitterType())));
+            items.add(new ListBoxModel.Option("Beats (lumberjack v2 over TCP)",
+                    SubmitterType.BEATS.name(),
+                    SubmitterType.BEATS.name().equals(getSubmitterType())));
+            return items;
+        }
+
+        public boolean isMergeMultilineLogs() {
+            return mergeMultilineLogs != null && mergeMultilineLogs;
+        }
+
+        public void setMergeMultilineLogs(boolean mergeMultilineLogs) {
+            this.mergeMultilineLogs = mergeMultilineLogs;
+        }
+
+        public String getLogMultilinePattern() {
+            if (StringUtils.isBlank(logMultilinePattern)) {
+                return LineAggregator.DEFAULT_CONTINUATION_PATTERN;
+            }
+            try {
+                Pattern.compile(logMultilinePattern);
+                return logMultilinePattern;
+            } catch (PatternSyntaxException e) {
+                return LineAggregator.DEFAULT_CONTINUATION_PATTERN;
+            }
+        }
+
+        public void setLogMultilinePattern(String logMultilinePattern) {
+            this.logMultilinePattern = logMultilinePattern;
+        }
+
+        public FormValidation doCheckLogMultilinePattern(
+                @QueryParameter String value) {
+            try {
+                Pattern.compile(value);
+                return FormValidation.ok();
+            } catch (PatternSyntaxException e) {
+                return FormValidation.error(e.getDescription());
+            }
+        }
+
+        public int getLogMultilineTimeoutMillis() {
+            return logMultilineTimeoutMillis > 0 ? logMultilineTimeoutMillis
+                    : LineAggregator.DEFAULT_FLUSH_TIMEOUT_MILLIS;
+        }
+
+        public void setLogMultilineTimeoutMillis(
+                int logMultilineTimeoutMillis) {
+            this.logMultilineTimeoutMillis = logMultilineTimeoutMillis;
+        }
+
+        public int getLogMultilineMaxLines() {
+            return logMultilineMaxLines > 0 ? logMultilineMaxLines
+                    : LineAggregator.DEFAULT_MAX_LINES;
+        }
+
+        public void setLogMultilineMaxLines(int logMultilineMaxLines) {
+            this.logMultilineMaxLines = logMultilineMaxLines;
+        }
+
+        public int getLogDrainTimeoutSeconds() {
+            return logDrainTimeoutSeconds > 0 ? logDrainTimeoutSeconds
+                    : ElasTestWriter.DEFAULT_DRAIN_TIMEOUT_SECONDS;
+        }
+
+        public void setLogDrainTimeoutSeconds(int logDrainTimeoutSeconds) {
+            this.logDrainTimeoutSeconds = logDrainTimeoutSeconds;
+        }
+
+        public String getLogLeftoverPolicy() {
+            for (ElasTestWriter.LeftoverPolicy policy : ElasTestWriter.LeftoverPolicy
+                    .values()) {
+                if (policy.name().equals(logLeftoverPolicy)) {
+                    return logLeftoverPolicy;
+                }
+            }
+            return ElasTestWriter.LeftoverPolicy.SPOOL.name();
+        }
+
+        public void setLogLeftoverPolicy(String logLeftoverPolicy) {
+            this.logLeftoverPolicy = logLeftoverPolicy;
+        }
+
+        public boolean isCoalesceConsoleFlushes() {
+            return coalesceConsoleFlushes;
+        }
+
+        public void setCoalesceConsoleFlushes(boolean coalesceConsoleFlushes) {
+            this.coalesceConsoleFlushes = coalesceConsoleFlushes;
+        }
+
+        public boolean isAdaptiveBatchSize() {
+            return adaptiveBatchSize == null || adaptiveBatchSize;
+        }
+
+        public void setAdaptiveBatchSize(boolean adaptiveBatchSize) {
+            this.adaptiveBatchSize = adaptiveBatchSize;
+        }
+
+        public boolean isCollapseRepeatedLines() {
+            return collapseRepeatedLines;
+        }
+
+        public void setCollapseRepeatedLines(boolean collapseRepeatedLines) {
+            this.collapseRepeatedLines = collapseRepeatedLines;
+        }
+
+        public int getConsoleFlushIntervalMillis() {
+            return consoleFlushIntervalMillis > 0 ? consoleFlushIntervalMillis
+                    : ElasTestOutputStream.DEFAULT_FLUSH_INTERVAL_MILLIS;
+        }
+
+        public void setConsoleFlushIntervalMillis(
+                int consoleFlushIntervalMillis) {
+            this.consoleFlushIntervalMillis = consoleFlushIntervalMillis;
+        }
+
+        public ListBoxModel doFillLogLeftoverPolicyItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (ElasTestWriter.LeftoverPolicy policy : ElasTestWriter.LeftoverPolicy
+                    .values()) {
+                items.add(new ListBoxModel.Option(policy.name(), policy.name(),
+                        policy.name().equals(getLogLeftoverPolicy())));
+            }
+            return items;
+        }
+
+        public int getLogMaxLineBytes() {
+            return logMaxLineBytes > 0 ? logMaxLineBytes
+                    : ElasTestOutputStream.DEFAULT_MAX_LINE_BYTES;
+        }
+
+        public void setLogMaxLineBytes(int logMaxLineBytes) {
+            this.logMaxLineBytes = logMaxLineBytes;
+        }
+
+        public String getLogLongLinePolicy() {
+            for (ElasTestOutputStream.LongLinePolicy policy : ElasTestOutputStream.LongLinePolicy
+                    .values()) {
+                if (policy.name().equals(logLongLinePolicy)) {
+                    return logLongLinePolicy;
+                }
+            }
+            return ElasTestOutputStream.LongLinePolicy.CHUNK.name();
+        }
+
+        public void setLogLongLinePolicy(String logLongLinePolicy) {
+            this.logLongLinePolicy = logLongLinePolicy;
+        }
+
+        public ListBoxModel doFillLogLongLinePolicyItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (ElasTestOutputStream.LongLinePolicy policy : ElasTestOutputStream.LongLinePolicy
+                    .values()) {
+                items.add(new ListBoxModel.Option(policy.name(), policy.name(),
+                        policy.name().equals(getLogLongLinePolicy())));
+            }
+            return items;
+        }
+
+        public SubmitterSettings getSubmitterSettings() {
+            return new SubmitterSettings()
+                    .setMaxConnectionsPerRoute(getMaxConnectionsPerRoute())
+                    .setConnectionIdleTimeout(getConnectionIdleTimeout())
+                    .setCompressionEnabled(isCompressLogs())
+                    .setCompressionThreshold(getCompressionThreshold());
+        }
     }
 }
@@ -27,45 +27,307 @@ package jenkins.plugins.elastest;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import hudson.console.ConsoleNote;
 import hudson.console.LineTransformationOutputStream;
+import jenkins.plugins.elastest.metrics.LogMetrics;
+import jenkins.plugins.elastest.utils.LogTimestamps;
 
 /**
  * Output stream that writes each line to the provided delegate output stream
- * and also sends it to ElasTest.
+ * and also sends it to ElasTest. Console notes and trailing whitespace are
+ * removed working on the bytes of the line, so that a single String is
+ * created for each line sent. Leading whitespace is kept for the writer to
+ * recognize indented continuation lines, which are only merged with the
+ * lines of the same stream. Each line is sent with its sequence number and
+ * its offset in bytes in the console of the build, both taken from the
+ * writer shared by all the streams of the build, so the offsets of the
+ * parallel branches never overlap.
+ * <p>
+ * The delegate is flushed after each line unless a flush interval is given.
+ * Then the lines still reach the delegate at once, but it is flushed at most
+ * once per interval, when {@link #FLUSH_BYTES} are waiting or when the stream
+ * is flushed or closed by its owner. A line written after a quiet period is
+ * flushed at once, and a line left unflushed is flushed in the background
+ * when the interval is over.
+ * <p>
+ * A line longer than the maximum line length is ended when it reaches that
+ * length, at the start of a UTF-8 character, so the stream never buffers more
+ * than a chunk of it. Depending on the {@link LongLinePolicy} each chunk is
+ * sent as a trace of its own with continuation markers, or only the first
+ * chunk is sent with a truncation marker. The delegate receives every byte
+ * of the line either way.
  *
  * @author Francisco R Díaz
  * @since 0.0.1
  */
 public class ElasTestOutputStream extends LineTransformationOutputStream {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ElasTestOutputStream.class);
+
+    static final int DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    static final int FLUSH_BYTES = 64 * 1024;
+    static final int DEFAULT_MAX_LINE_BYTES = 64 * 1024;
+    static final String CONTINUES_MARKER = " [continues]";
+    static final String CONTINUED_MARKER = "[continued] ";
+    static final String TRUNCATED_MARKER = " [truncated]";
+
+    /**
+     * What to do with the lines longer than the maximum line length.
+     */
+    enum LongLinePolicy {
+        /** Sends each chunk of the line with continuation markers. */
+        CHUNK,
+        /** Sends the first chunk of the line with a truncation marker. */
+        TRUNCATE
+    }
+
+    private static final ScheduledExecutorService FLUSHER = Executors
+            .newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "elastest-console-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     final OutputStream delegate;
     final ElasTestWriter elasTestWriter;
+    private final LogMetrics metrics;
+    private byte[] noteFreeLine = new byte[256];
+    private int noteFreeLength;
+    private final long flushIntervalNanos;
+    private long lastFlush = System.nanoTime();
+    private int unflushedBytes;
+    private boolean flushScheduled;
+    private boolean closed;
+    private int maxLineBytes = DEFAULT_MAX_LINE_BYTES;
+    private LongLinePolicy longLinePolicy = LongLinePolicy.CHUNK;
+    // Bytes of the current line buffered, and chunks of it already ended
+    private int lineBytes;
+    private int lineChunks;
+    private boolean splitting;
 
     public ElasTestOutputStream(OutputStream delegate,
             ElasTestWriter elasTestWriter) {
+        this(delegate, elasTestWriter, LogMetrics.installation());
+    }
+
+    /**
+     * @param metrics
+     *            metrics where the lines written to the stream are counted
+     */
+    public ElasTestOutputStream(OutputStream delegate,
+            ElasTestWriter elasTestWriter, LogMetrics metrics) {
+        this(delegate, elasTestWriter, metrics, 0);
+    }
+
+    /**
+     * @param flushIntervalMillis
+     *            minimum time between two flushes of the delegate caused by
+     *            the lines written, or 0 to flush it after each line
+     */
+    ElasTestOutputStream(OutputStream delegate, ElasTestWriter elasTestWriter,
+            LogMetrics metrics, int flushIntervalMillis) {
         super();
         this.delegate = delegate;
         this.elasTestWriter = elasTestWriter;
+        this.metrics = metrics;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS
+                .toNanos(flushIntervalMillis);
+    }
+
+    /**
+     * Sets the length in bytes from which the lines are split, and what to do
+     * with the chunks after the first one.
+     *
+     * @param maxLineBytes
+     *            maximum line length, or 0 to use the default one
+     * @param longLinePolicy
+     *            policy for the longer lines, or null to send all the chunks
+     */
+    void setLineLimit(int maxLineBytes, LongLinePolicy longLinePolicy) {
+        this.maxLineBytes = maxLineBytes > 0 ? maxLineBytes
+                : DEFAULT_MAX_LINE_BYTES;
+        this.longLinePolicy = longLinePolicy != null ? longLinePolicy
+                : LongLinePolicy.CHUNK;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (b != '\n') {
+            if (lineBytes >= maxLineBytes && !isContinuationByte(b)) {
+                splitLine();
+            }
+            lineBytes++;
+        }
+        super.write(b);
+    }
+
+    /**
+     * Writes each byte through {@link #write(int)}, where the bytes of the
+     * line are counted, whatever the implementation of the superclass does.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            write(b[i]);
+        }
+    }
+
+    private static boolean isContinuationByte(int b) {
+        return (b & 0xc0) == 0x80;
+    }
+
+    private void splitLine() throws IOException {
+        splitting = true;
+        try {
+            forceEol();
+        } finally {
+            splitting = false;
+        }
     }
 
     @Override
     protected void eol(byte[] b, int len) throws IOException {
+        // The line is stamped when it arrives, not when it is sent
+        long timestamp = LogTimestamps.now();
+        boolean continues = splitting;
+        int chunk = lineChunks;
+        lineChunks = continues ? chunk + 1 : 0;
+        lineBytes = 0;
+        metrics.lineCaptured(len);
+        writeLine(b, len);
+        long lineOffset = elasTestWriter.nextLineOffset(len);
+
+        if (elasTestWriter.isConnectionBroken()
+                || chunk > 0 && longLinePolicy == LongLinePolicy.TRUNCATE) {
+            return;
+        }
+        String message = toMessage(b, len);
+        if (continues) {
+            message += longLinePolicy == LongLinePolicy.TRUNCATE
+                    ? TRUNCATED_MARKER
+                    : CONTINUES_MARKER;
+        }
+        if (chunk > 0) {
+            message = CONTINUED_MARKER + message;
+        }
+        elasTestWriter.write(message, timestamp,
+                elasTestWriter.nextLineSequence(), lineOffset, this);
+    }
+
+    private synchronized void writeLine(byte[] b, int len) throws IOException {
         delegate.write(b, 0, len);
-        this.flush();
+        if (flushIntervalNanos == 0) {
+            flush();
+            return;
+        }
+        unflushedBytes += len;
+        if (unflushedBytes >= FLUSH_BYTES
+                || System.nanoTime() - lastFlush >= flushIntervalNanos) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            FLUSHER.schedule(this::flushUnflushedLines, flushIntervalNanos,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
 
-        if (!elasTestWriter.isConnectionBroken()) {
-            String line = new String(b, 0, len, StandardCharsets.UTF_8.name()).trim();
-            line = ConsoleNote.removeNotes(line);
-            elasTestWriter.write(line);
+    private synchronized void flushUnflushedLines() {
+        flushScheduled = false;
+        if (closed || unflushedBytes == 0) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            LOG.debug("[elastest-plugin]: Error flushing the console: {}",
+                    e.getMessage());
         }
     }
 
+    /**
+     * Builds the message of a console line without console notes and without
+     * trailing whitespace. Leading whitespace is kept, and a line with only
+     * whitespace results in an empty message. Lines without a note preamble
+     * are not copied.
+     */
+    String toMessage(byte[] b, int len) {
+        byte[] line = b;
+        int end = len;
+        int note = indexOf(b, 0, len, ConsoleNote.PREAMBLE);
+        if (note >= 0) {
+            line = removeNotes(b, len, note);
+            end = noteFreeLength;
+        }
+
+        while (end > 0 && (line[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return end == 0 ? ""
+                : new String(line, 0, end, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the line to a reusable buffer skipping the console notes, from
+     * the preamble to the postamble, both included.
+     */
+    private byte[] removeNotes(byte[] b, int len, int firstNote) {
+        if (noteFreeLine.length < len) {
+            noteFreeLine = new byte[Math.max(len, noteFreeLine.length * 2)];
+        }
+        int copied = 0;
+        int from = 0;
+        int note = firstNote;
+        while (note >= 0) {
+            int postamble = indexOf(b, note + ConsoleNote.PREAMBLE.length, len,
+                    ConsoleNote.POSTAMBLE);
+            if (postamble < 0) {
+                break;
+            }
+            System.arraycopy(b, from, noteFreeLine, copied, note - from);
+            copied += note - from;
+            from = postamble + ConsoleNote.POSTAMBLE.length;
+            note = indexOf(b, from, len, ConsoleNote.PREAMBLE);
+        }
+        System.arraycopy(b, from, noteFreeLine, copied, len - from);
+        noteFreeLength = copied + len - from;
+        return noteFreeLine;
+    }
+
+    private static int indexOf(byte[] b, int from, int len, byte[] pattern) {
+        int last = len - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (b[i] != pattern[0]) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && b[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public void flush() throws IOException {
+    public synchronized void flush() throws IOException {
+        unflushedBytes = 0;
+        lastFlush = System.nanoTime();
         delegate.flush();
         super.flush();
     }
@@ -75,7 +337,11 @@ public class ElasTestOutputStream extends LineTransformationOutputStream {
      */
     @Override
     public void close() throws IOException {
-        delegate.close();
+        synchronized (this) {
+            closed = true;
+            delegate.close();
+        }
         super.close();
+        elasTestWriter.endStream(this);
     }
 }
@@ -40,7 +40,6 @@ import javax.ws.rs.core.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import hudson.EnvVars;
 import hudson.model.Run;
@@ -49,6 +48,7 @@ import jenkins.model.BuildDiscarder;
 import jenkins.plugins.elastest.json.ElasTestBuild;
 import jenkins.plugins.elastest.json.ExternalJob;
 import jenkins.plugins.elastest.json.ExternalJob.ExternalJobStatusEnum;
+import jenkins.plugins.elastest.json.JsonCodec;
 import jenkins.plugins.elastest.json.Sut;
 import jenkins.plugins.elastest.json.TestSupportServices;
 import jenkins.plugins.elastest.pipeline.ElasTestStep;
@@ -206,7 +206,6 @@ public class ElasTestService implements Serializable {
     }
 
     private ExternalJob createTJobOnElasTest(ExternalJob externalJob) throws Exception {
-        ObjectMapper objetMapper = new ObjectMapper();
         WebTarget webTarget = client.target(elasTestTJobApiUrl);
 
         Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON);
@@ -214,8 +213,8 @@ public class ElasTestService implements Serializable {
         try {
             response = invocationBuilder
                     .post(Entity.entity(externalJob.toJSON(), MediaType.APPLICATION_JSON));
-            externalJob = objetMapper.readValue(response.readEntity(String.class),
-                    ExternalJob.class);
+            externalJob = JsonCodec
+                    .readExternalJob(response.readEntity(String.class));
             if (externalJob.getStatus() == ExternalJobStatusEnum.ERROR) {
                 throw new Exception(externalJob.getError());
             }
@@ -231,7 +230,6 @@ public class ElasTestService implements Serializable {
     }
 
     public ExternalJob isReadyTJobForExternalExecution(ExternalJob externalJob) throws Exception {
-        ObjectMapper objetMapper = new ObjectMapper();
         WebTarget webTarget = client.target(elasTestTJobApiUrl)
                 .path(externalJob.gettJobExecId().toString());
 
@@ -243,8 +241,8 @@ public class ElasTestService implements Serializable {
         Response response = null;
         try {
             response = invocationBuilder.get(Response.class);
-            externalJob = objetMapper.readValue(response.readEntity(String.class),
-                    ExternalJob.class);
+            externalJob = JsonCodec
+                    .readExternalJob(response.readEntity(String.class));
             if (externalJob.getStatus() == ExternalJobStatusEnum.ERROR) {
                 throw new Exception(externalJob.getError());
             }
@@ -27,14 +27,23 @@ package jenkins.plugins.elastest;
 import static java.lang.invoke.MethodHandles.lookup;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -45,9 +54,16 @@ import hudson.model.TaskListener;
 import jenkins.model.Jenkins;
 import jenkins.plugins.elastest.action.ElasTestItemMenuAction;
 import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.json.Trace;
+import jenkins.plugins.elastest.metrics.LogMetrics;
+import jenkins.plugins.elastest.submitters.BeatsSubmitter;
+import jenkins.plugins.elastest.submitters.CircuitBreaker;
+import jenkins.plugins.elastest.submitters.CongestionControl;
 import jenkins.plugins.elastest.submitters.ElasTestSubmitter;
 import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
 import jenkins.plugins.elastest.submitters.SubmitterFactory;
+import jenkins.plugins.elastest.utils.Backoff;
+import jenkins.plugins.elastest.utils.LogTimestamps;
 
 /**
  * A writer that wraps all submitters.
@@ -57,6 +73,16 @@ import jenkins.plugins.elastest.submitters.SubmitterFactory;
  */
 public class ElasTestWriter implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final int JOURNAL_REPLAY_INTERVAL_SECONDS = 5;
+    private static final int MAX_SEND_ATTEMPTS = 4;
+    private static final long RETRY_BASE_DELAY_MILLIS = 500;
+    private static final long RETRY_MAX_DELAY_MILLIS = 8 * 1000;
+    static final int DEFAULT_DRAIN_TIMEOUT_SECONDS = 30;
+    private static final long DRAIN_POLL_MILLIS = 100;
+    private static final long DRAIN_PROGRESS_MILLIS = 5 * 1000;
+    private static final int SPOOL_CHECK_SECONDS = 5;
+    static final long SPOOL_TIMEOUT_MILLIS = 15 * 60 * 1000;
+    private static final String BEATS_PORT_VARIABLE = "ET_MON_LSBEATS_PORT";
     transient final Logger LOG = getLogger(lookup().lookupClass());
 
     transient OutputStream errorStream;
@@ -66,7 +92,49 @@ public class ElasTestWriter implements Serializable {
     transient final ElasTestSubmitter elastestSubmiter;
     private boolean connectionBroken;
     final ExternalJob externalJob;
-    transient private ExecutorService executor;
+    transient private LogDispatcher.BuildQueue executor;
+    transient private LogBuffer logBuffer;
+    transient private LogJournal logJournal;
+    transient private final AtomicBoolean sendScheduled = new AtomicBoolean();
+    transient private final AtomicBoolean replayScheduled = new AtomicBoolean();
+    transient private CircuitBreaker circuitBreaker;
+    // Null if the batch size is not adapted to the destination
+    transient private CongestionControl congestionControl;
+    transient private LogFilter logFilter;
+    // Aggregator of the lines written without a stream, null if disabled
+    transient private LineAggregator lineAggregator;
+    // One aggregator per console stream, so that the lines of parallel
+    // branches are never merged with each other
+    transient private final Map<Object, LineAggregator> streamAggregators =
+            new ConcurrentHashMap<>();
+    transient private LineDeduplicator lineDeduplicator;
+    // Null if the writer has been deserialized
+    transient private AtomicLong lastSequence;
+    transient private AtomicLong consoleBytes;
+    transient private final AtomicLong queuedLines = new AtomicLong();
+    // Lines dropped because their payload could not be built
+    transient private final AtomicLong unencodedLines = new AtomicLong();
+    transient private final AtomicLong unencodedBytes = new AtomicLong();
+    transient private LogMetrics metrics;
+    // Only used by the tasks of the build queue, which never run at once
+    transient private boolean sending;
+    transient private boolean forceRequested;
+    transient private boolean submitterReleased;
+    // Payload on its way to the indexer, not in the buffer nor the journal
+    transient private volatile int inFlightLines;
+    transient private volatile long inFlightBytes;
+    transient private volatile long drainDeadline;
+
+    /**
+     * What to do with the lines still pending when the time to send them
+     * after the build has finished is over.
+     */
+    enum LeftoverPolicy {
+        /** Keeps sending them in the background for a limited time. */
+        SPOOL,
+        /** Discards them, counting them as dropped. */
+        DROP
+    }
 
     public ElasTestWriter(Run<?, ?> run, /*OutputStream error,*/
             TaskListener listener, ExternalJob externalJob) {
@@ -75,35 +143,431 @@ public class ElasTestWriter implements Serializable {
         this.build = run;
         this.listener = listener;
         this.externalJob = externalJob;
-        this.elastestSubmiter = this.getSubmitterOrNull(SubmitterType.LOGSTASH);
+        this.elastestSubmiter = this.getSubmitterOrNull(getSubmitterType());
 
         if (this.elastestSubmiter == null) {
             this.jenkinsUrl = "";
         } else {
             this.jenkinsUrl = getJenkinsUrl();
+            this.circuitBreaker = CircuitBreaker
+                    .forDestination(elastestSubmiter.getDescription());
+            this.congestionControl = getCongestionControl(elastestSubmiter);
         }
-
-        executor = Executors.newSingleThreadExecutor();
+        logBuffer = createLogBuffer();
+        logJournal = createLogJournal();
+        executor = createExecutor();
+        lineAggregator = createLineAggregator(this::accept);
+        lineDeduplicator = createLineDeduplicator();
+        lastSequence = new AtomicLong();
+        consoleBytes = new AtomicLong();
+        metrics = LogMetrics.forBuild(
+                run != null ? run.getFullDisplayName() : "unknown build",
+                this::getPendingLines, this::getDroppedLines,
+                this::getDroppedBytes);
     }
-    
+
     public void setErrorStream(OutputStream error) {
         this.errorStream = error != null ? error : System.err;
     }
 
     /**
-     * Sends a logstash payload for a single line to the indexer. Call will be
-     * ignored if the line is empty or if the connection to ElasTest is broken.
-     * If write fails, errors will logged to errorStream and connectionBroken
-     * will be set to true.
+     * @param logFilter
+     *            filter applied to the lines before they are queued, or null
+     *            to send all the lines
+     */
+    public void setLogFilter(LogFilter logFilter) {
+        this.logFilter = logFilter;
+    }
+
+    /**
+     * Queues a line stamped with the current time to be sent to the indexer.
      *
      * @param line Message, not null
+     * @see #write(String, long)
      */
     public void write(String line) {
-        if (!isConnectionBroken() && StringUtils.isNotEmpty(line)) {
-            this.write(Arrays.asList(line));
+        write(line, LogTimestamps.now());
+    }
+
+    /**
+     * Queues a line that is not part of a console stream.
+     *
+     * @param line Message, not null
+     * @param timestamp Time in milliseconds when the line was written
+     * @see #write(String, long, long, long)
+     */
+    public void write(String line, long timestamp) {
+        write(line, timestamp, nextLineSequence(), 0);
+    }
+
+    /**
+     * Queues a line to be sent to the indexer. Lines are grouped in batches
+     * that are sent as a single Logstash payload when the batch is full or
+     * when its oldest line has waited longer than the configured linger time.
+     * Call will be ignored if the line is empty or if the connection to
+     * ElasTest is broken.
+     * <p>
+     * Continuation lines, such as the frames of a stack trace, are merged with
+     * the line before them into a single trace by the {@link LineAggregator},
+     * which matches them with their leading whitespace and keeps it. Leading
+     * whitespace is removed from the lines that start a trace.
+     * The {@link LogFilter} of the build is applied to the merged trace.
+     * Then the {@link LineDeduplicator}, if any, collapses the runs of
+     * identical traces.
+     *
+     * <p>
+     * The sequence number and the offset travel with the trace, so that
+     * ElasTest can put the lines of the build in order and discard the ones
+     * received twice when a payload is retried.
+     *
+     * @param line Message, not null
+     * @param timestamp Time in milliseconds when the line was written
+     * @param sequence Number of the line in the build, from
+     *            {@link #nextLineSequence()}
+     * @param offset Offset in bytes of the line in the console of the
+     *            build, from {@link #nextLineOffset(int)}
+     */
+    public void write(String line, long timestamp, long sequence,
+            long offset) {
+        write(line, timestamp, sequence, offset, null);
+    }
+
+    /**
+     * Queues a line of a console stream to be sent to the indexer. Only the
+     * lines of the same stream are merged into multi-line events, so the
+     * lines of the parallel branches of a build, written to different streams
+     * at once, are never mixed in a single trace.
+     *
+     * @param line Message, not null
+     * @param timestamp Time in milliseconds when the line was written
+     * @param sequence Number of the line in the build, from
+     *            {@link #nextLineSequence()}
+     * @param offset Offset in bytes of the line in the console of the
+     *            build, from {@link #nextLineOffset(int)}
+     * @param stream Stream the line has been written to, or null if it is
+     *            not part of a console stream
+     * @see #endStream(Object)
+     */
+    public void write(String line, long timestamp, long sequence,
+            long offset, Object stream) {
+        if (!isConnectionBroken() && StringUtils.isNotEmpty(line)
+                && isMonitored()) {
+            LineAggregator aggregator = getLineAggregator(stream);
+            if (aggregator == null) {
+                accept(line, timestamp, sequence, offset);
+            } else if (aggregator.add(line, timestamp, sequence, offset)) {
+                scheduleIdleFlush(aggregator,
+                        aggregator.getFlushTimeoutMillis());
+            }
         }
     }
 
+    /**
+     * Sends the multi-line event in progress of a console stream that has
+     * been closed, and forgets the stream.
+     *
+     * @param stream Stream given to {@link #write(String, long, long, long,
+     *            Object)}
+     */
+    public void endStream(Object stream) {
+        LineAggregator aggregator = streamAggregators.remove(stream);
+        if (aggregator != null) {
+            aggregator.flush();
+        }
+    }
+
+    private LineAggregator getLineAggregator(Object stream) {
+        if (stream == null || lineAggregator == null) {
+            return lineAggregator;
+        }
+        return streamAggregators.computeIfAbsent(stream,
+                key -> createLineAggregator(this::accept));
+    }
+
+    /**
+     * Numbers the lines of the build in the order they are captured.
+     *
+     * @return The next sequence number, or 0 if none can be assigned.
+     */
+    public long nextLineSequence() {
+        return lastSequence != null ? lastSequence.incrementAndGet() : 0;
+    }
+
+    /**
+     * Places the lines of all the console streams of the build one after
+     * the other, in the order they are captured, so that their offsets
+     * never overlap.
+     *
+     * @param length Bytes of the line
+     * @return The offset in bytes of the line in the console of the build,
+     *         or 0 if none can be assigned.
+     */
+    public long nextLineOffset(int length) {
+        return consoleBytes != null ? consoleBytes.getAndAdd(length) : 0;
+    }
+
+    private void accept(String event, long timestamp, long sequence,
+            long offset) {
+        // Only the leading whitespace of the first line is left to remove
+        String message = event.trim();
+        if ((logFilter == null || logFilter.accept(message, timestamp))
+                && (lineDeduplicator == null || !lineDeduplicator
+                        .add(message, timestamp, sequence, offset))) {
+            enqueue(message, timestamp, sequence, offset);
+        }
+    }
+
+    private void enqueue(String line, long timestamp, long sequence,
+            long offset) {
+        enqueue(newTrace(line, timestamp, sequence, offset));
+    }
+
+    /**
+     * Queues a single trace for the repeats of a line, with their number, the
+     * timestamp of the last one and the sequence number of the line they
+     * repeat, which is not copied.
+     */
+    private void enqueueRepeats(long repeatOf, long firstTimestamp,
+            long lastTimestamp, long repeats, long sequence, long offset) {
+        Trace trace = newTrace(
+                "Previous line repeated " + repeats
+                        + (repeats == 1 ? " time" : " times"),
+                firstTimestamp, sequence, offset);
+        trace.setRepeats(repeats);
+        trace.setRepeatOf(repeatOf);
+        trace.setLastTimestampStr(LogTimestamps.format(lastTimestamp));
+        enqueue(trace);
+    }
+
+    private Trace newTrace(String line, long timestamp, long sequence,
+            long offset) {
+        return new Trace(Trace.DEFAULT_COMPONENT,
+                String.valueOf(externalJob.gettJobExecId()),
+                Trace.DEFAULT_STREAM, line, LogTimestamps.format(timestamp),
+                sequence, offset);
+    }
+
+    private void enqueue(Trace trace) {
+        queuedLines.incrementAndGet();
+        metrics.lineEnqueued((int) LogBuffer.sizeOf(trace));
+        // A task of the queue waiting for room would hold the tasks that
+        // make room, such as the idle flush of the multi-line event
+        int pending = executor.isRunningTask() ? logBuffer.offer(trace)
+                : logBuffer.add(trace);
+        if (logBuffer.hasFullBatch()) {
+            scheduleSend();
+        } else if (pending == 1) {
+            executor.schedule(() -> sendBatches(false),
+                    logBuffer.getLingerMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends the lines pending in the buffer, including the multi-line event in
+     * progress, without waiting for the batch to be full, after trying to
+     * replay the payloads kept in the journal. If
+     * the {@link LogFilter} of the build has suppressed lines since the last
+     * flush, a trace with their number is sent after the pending lines.
+     */
+    public void flush() {
+        if (logBuffer != null) {
+            if (lineAggregator != null) {
+                lineAggregator.flush();
+                streamAggregators.values().forEach(LineAggregator::flush);
+            }
+            if (lineDeduplicator != null) {
+                lineDeduplicator.flush();
+            }
+            String summary = logFilter != null ? logFilter.nextSummary() : null;
+            if (summary != null && !isConnectionBroken()) {
+                enqueue(summary, LogTimestamps.now(), nextLineSequence(), 0);
+            }
+            executor.execute(() -> sendBatches(true));
+        }
+    }
+
+    /**
+     * Releases the buffer, the journal and the submitter of the writer. Lines
+     * not sent yet are discarded and counted as dropped.
+     */
+    public void close() {
+        if (logBuffer != null) {
+            logBuffer.close();
+            logJournal.close();
+        }
+        if (elastestSubmiter != null && !submitterReleased) {
+            submitterReleased = true;
+            SubmitterFactory.release(elastestSubmiter);
+        }
+        if (metrics != null) {
+            metrics.unregister();
+        }
+    }
+
+    /**
+     * @return The metrics of the lines of this build.
+     */
+    public LogMetrics getMetrics() {
+        return metrics != null ? metrics : LogMetrics.installation();
+    }
+
+    /**
+     * @return Number of lines written and not delivered yet, waiting in the
+     *         buffer, on their way or kept in the journal.
+     */
+    public long getPendingLines() {
+        return logBuffer.size() + inFlightLines
+                + logJournal.getPendingLines();
+    }
+
+    /**
+     * @return Size of the lines written and not delivered yet, counting the
+     *         UTF-8 bytes of the lines in the buffer and of the payloads on
+     *         their way or in the journal.
+     */
+    public long getPendingBytes() {
+        return logBuffer.getBytes() + inFlightBytes
+                + logJournal.getPendingBytes();
+    }
+
+    /**
+     * Sends the pending lines and waits for them to be delivered, printing
+     * the progress. The wait ends when all the lines have been delivered, when
+     * the deadline has passed or as soon as the delivery is suspended because
+     * the destination keeps failing. The deadline starts with the first call,
+     * so later calls, such as the one for the last lines of the build, only
+     * wait for the time left.
+     *
+     * @param timeoutMillis
+     *            time to wait since the first call
+     * @param progress
+     *            stream for the progress messages, or null to log them
+     * @return True if all the lines written have been delivered.
+     */
+    public boolean drain(long timeoutMillis, PrintStream progress) {
+        if (logBuffer == null || isConnectionBroken()) {
+            return logBuffer == null || getPendingLines() == 0;
+        }
+        if (drainDeadline == 0) {
+            drainDeadline = System.currentTimeMillis() + timeoutMillis;
+        }
+        try {
+            flush();
+        } catch (RejectedExecutionException e) {
+            return getPendingLines() == 0;
+        }
+        long nextProgress = System.currentTimeMillis();
+        while (getPendingLines() > 0) {
+            long now = System.currentTimeMillis();
+            if (now >= drainDeadline) {
+                return false;
+            }
+            if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                printProgress(progress,
+                        "[elastest-plugin]: Delivery of logs to ElasTest is failing, "
+                                + getPendingLines() + " lines not sent");
+                return false;
+            }
+            if (now >= nextProgress) {
+                printProgress(progress, String.format(
+                        "[elastest-plugin]: Sending %d log lines (%d KB) to ElasTest, %d s left",
+                        getPendingLines(), getPendingBytes() / 1024,
+                        TimeUnit.MILLISECONDS
+                                .toSeconds(drainDeadline - now + 999)));
+                nextProgress = now + DRAIN_PROGRESS_MILLIS;
+            }
+            try {
+                Thread.sleep(Math.min(DRAIN_POLL_MILLIS, drainDeadline - now));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void printProgress(PrintStream progress, String message) {
+        if (progress != null) {
+            progress.println(message);
+        } else {
+            LOG.info(message);
+        }
+    }
+
+    /**
+     * Releases the writer of a finished build. The lines not delivered yet
+     * are sent in the background for up to {@link #SPOOL_TIMEOUT_MILLIS}
+     * before the writer is closed, or discarded at once, depending on the
+     * policy.
+     *
+     * @return Number of lines left to send in the background.
+     */
+    long release(LeftoverPolicy policy) {
+        long pending = logBuffer != null ? getPendingLines() : 0;
+        if (pending > 0 && policy == LeftoverPolicy.SPOOL
+                && !isConnectionBroken()) {
+            try {
+                spool(System.currentTimeMillis() + SPOOL_TIMEOUT_MILLIS);
+                return pending;
+            } catch (RejectedExecutionException e) {
+                // The queue is shut down, the lines cannot be sent anymore
+            }
+        }
+        releaseNow();
+        return 0;
+    }
+
+    /**
+     * Checks in the build queue, from time to time, whether the lines have
+     * been delivered or the time to send them is over.
+     */
+    private void spool(final long until) {
+        executor.schedule(() -> {
+            if (getPendingLines() > 0
+                    && System.currentTimeMillis() < until) {
+                try {
+                    spool(until);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Released below
+                }
+            }
+            releaseNow();
+            if (getDroppedLines() > 0) {
+                LOG.warn("[elastest-plugin]: {} log lines of {} were not sent to ElasTest",
+                        getDroppedLines(), build.getFullDisplayName());
+            }
+        }, SPOOL_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void releaseNow() {
+        executor.shutdown();
+        close();
+    }
+
+    /**
+     * @return Number of lines discarded because the buffer was full, they
+     *         could not be encoded or delivered or the writer was closed.
+     */
+    public long getDroppedLines() {
+        return logBuffer != null
+                ? logBuffer.getDroppedLines() + logJournal.getDroppedLines()
+                        + unencodedLines.get()
+                : 0;
+    }
+
+    /**
+     * @return Size of the lines counted by {@link #getDroppedLines()}: the
+     *         UTF-8 bytes of the lines dropped from the buffer or before they
+     *         were sent, and of the payloads dropped from the journal.
+     */
+    public long getDroppedBytes() {
+        return logBuffer != null
+                ? logBuffer.getDroppedBytes() + logJournal.getDroppedBytes()
+                        + unencodedBytes.get()
+                : 0;
+    }
+
     /**
      * @return True if errors have occurred during initialization or write.
      */
@@ -120,43 +584,312 @@ public class ElasTestWriter implements Serializable {
         String host = "";
         Integer port = 0;
 
-        if (type.compareTo(SubmitterType.LOGSTASH) == 0) {
+        if (type == SubmitterType.LOGSTASH
+                || type == SubmitterType.LOGSTASH_ASYNC) {
             LOG.info("[elastest-plugin]: ElasTest services ip ->"
                     + externalJob.getServicesIp());
 
-            if (externalJob.isFromIntegratedJenkins()) {
-                if (externalJob.getServicesIp().equals("etm")) {
-                    key = "api/monitoring";
-                }
-            } else {
-                key = SubmitterType.LOGSTASH.toString();
-            }
-
+            key = getSubmitterKey();
             host = externalJob.getServicesIp();
-            port = Integer.valueOf(externalJob.getLogstashPort());
+            port = getSubmitterPort(type);
             LOG.debug("[elastest-plugin]: LOGSTASH KEY -> {}", key);
             LOG.debug("[elastest-plugin]: LOGSTASH HOST -> {}", host);
             LOG.debug("[elastest-plugin]: LOGSTASH PORT -> {}", port);
+        } else if (type == SubmitterType.BEATS) {
+            host = externalJob.getServicesIp();
+            port = getSubmitterPort(type);
+            LOG.debug("[elastest-plugin]: BEATS HOST -> {}", host);
+            LOG.debug("[elastest-plugin]: BEATS PORT -> {}", port);
         }
 
         return SubmitterFactory.getInstance(type, host, port, key,
-                descriptor.username, descriptor.password);
+                descriptor.username, descriptor.password,
+                descriptor.getSubmitterSettings());
+    }
+
+    /**
+     * @return The Logstash port of the job or, for the Beats submitter, the
+     *         port of the Beats input published by ElasTest.
+     */
+    private int getSubmitterPort(SubmitterType type) {
+        if (type != SubmitterType.BEATS) {
+            return Integer.valueOf(externalJob.getLogstashPort());
+        }
+        Map<String, String> envVars = externalJob.getEnvVars();
+        String beatsPort = envVars != null ? envVars.get(BEATS_PORT_VARIABLE)
+                : null;
+        return StringUtils.isNotEmpty(beatsPort)
+                && StringUtils.isNumeric(beatsPort)
+                        ? Integer.parseInt(beatsPort)
+                        : BeatsSubmitter.DEFAULT_PORT;
+    }
+
+    private String getSubmitterKey() {
+        if (!externalJob.isFromIntegratedJenkins()) {
+            return SubmitterType.LOGSTASH.toString();
+        }
+        return externalJob.getServicesIp().equals("etm") ? "api/monitoring"
+                : "";
+    }
+
+    // Method to encapsulate calls for unit-testing
+    boolean isMonitored() {
+        return build.getAction(ElasTestItemMenuAction.class) != null;
+    }
+
+    // Method to encapsulate calls for unit-testing
+    SubmitterType getSubmitterType() {
+        return SubmitterType.valueOf(ElasTestInstallation
+                .getLogstashDescriptor().getSubmitterType());
+    }
+
+    // Method to encapsulate calls for unit-testing
+    CongestionControl getCongestionControl(ElasTestSubmitter submitter) {
+        return ElasTestInstallation.getLogstashDescriptor()
+                .isAdaptiveBatchSize()
+                        ? CongestionControl
+                                .forDestination(submitter.getDescription())
+                        : null;
+    }
+
+    // Method to encapsulate calls for unit-testing
+    int getConsoleFlushIntervalMillis() {
+        ElasTestInstallation.Descriptor descriptor = ElasTestInstallation
+                .getLogstashDescriptor();
+        return descriptor.isCoalesceConsoleFlushes()
+                ? descriptor.getConsoleFlushIntervalMillis()
+                : 0;
+    }
+
+    // Method to encapsulate calls for unit-testing
+    int getMaxLineBytes() {
+        return ElasTestInstallation.getLogstashDescriptor()
+                .getLogMaxLineBytes();
+    }
+
+    // Method to encapsulate calls for unit-testing
+    ElasTestOutputStream.LongLinePolicy getLongLinePolicy() {
+        return ElasTestOutputStream.LongLinePolicy.valueOf(ElasTestInstallation
+                .getLogstashDescriptor().getLogLongLinePolicy());
+    }
+
+    // Method to encapsulate calls for unit-testing
+    LogBuffer createLogBuffer() {
+        ElasTestInstallation.Descriptor descriptor = ElasTestInstallation
+                .getLogstashDescriptor();
+        return new LogBuffer(descriptor.getLogBatchMaxLines(),
+                descriptor.getLogBatchMaxBytes(),
+                descriptor.getLogBatchLingerMillis(),
+                descriptor.getLogBufferCapacity(),
+                LogBuffer.OverflowPolicy
+                        .valueOf(descriptor.getLogOverflowPolicy()),
+                new File(build.getRootDir(), "elastest-spill.log"));
+    }
+
+    // Method to encapsulate calls for unit-testing
+    LogDispatcher.BuildQueue createExecutor() {
+        return LogDispatcher
+                .getInstance(ElasTestInstallation.getLogstashDescriptor()
+                        .getLogDispatcherThreads())
+                .newQueue();
+    }
+
+    // Method to encapsulate calls for unit-testing
+    LineAggregator createLineAggregator(LineAggregator.Sink sink) {
+        ElasTestInstallation.Descriptor descriptor = ElasTestInstallation
+                .getLogstashDescriptor();
+        if (!descriptor.isMergeMultilineLogs()) {
+            return null;
+        }
+        return new LineAggregator(
+                Pattern.compile(descriptor.getLogMultilinePattern()),
+                descriptor.getLogMultilineTimeoutMillis(),
+                descriptor.getLogMultilineMaxLines(), sink);
+    }
+
+    // Method to encapsulate calls for unit-testing
+    LineDeduplicator createLineDeduplicator() {
+        return ElasTestInstallation.getLogstashDescriptor()
+                .isCollapseRepeatedLines()
+                        ? new LineDeduplicator(
+                                LineDeduplicator.DEFAULT_REPORT_INTERVAL_MILLIS,
+                                this::enqueueRepeats)
+                        : null;
+    }
+
+    // Method to encapsulate calls for unit-testing
+    LogJournal createLogJournal() {
+        return new LogJournal(new File(build.getRootDir(), "elastest-journal"));
     }
 
     String getJenkinsUrl() {
         return Jenkins.getInstance().getRootUrl();
     }
 
+    private void scheduleIdleFlush(LineAggregator aggregator, long delay) {
+        try {
+            executor.schedule(() -> {
+                long remaining = aggregator.flushIfIdle(LogTimestamps.now());
+                if (remaining > 0) {
+                    scheduleIdleFlush(aggregator, remaining);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The writer is shutting down, the event in progress is sent by
+            // the final flush
+        }
+    }
+
+    private void scheduleSend() {
+        if (sendScheduled.compareAndSet(false, true)) {
+            executor.execute(() -> sendBatches(false));
+        }
+    }
+
     /**
-     * Write a list of lines to the indexer as one Logstash payload.
+     * Write the batches ready in the buffer to the indexer, one Logstash
+     * payload per batch. If a payload is already on its way, the batches are
+     * sent when it has been delivered.
      */
-    private void write(List<String> lines) {
-        if (build.getAction(ElasTestItemMenuAction.class) != null) {
-            final String payload = elastestSubmiter.buildPayload(lines,
-                    externalJob);
-            LOG.debug(
-                    "[elastest-plugin]: Message to send " + payload.toString());
-            executor.execute(() -> sendPayload(payload));
+    private void sendBatches(boolean force) {
+        sendScheduled.set(false);
+        forceRequested |= force;
+        if (!sending) {
+            sendNext();
+        }
+    }
+
+    /**
+     * Sends the oldest payload kept in the journal or, if the journal is
+     * empty, the next batch ready in the buffer, and goes on with the next one
+     * once it has been delivered. If a payload cannot be delivered, the ready
+     * batches are appended to the journal behind it to keep the order of the
+     * traces.
+     */
+    private void sendNext() {
+        final boolean force = forceRequested;
+        final String journaled = logJournal.peek();
+        if (journaled != null) {
+            send(journaled, 0, delivered -> {
+                if (delivered) {
+                    metrics.payloadSent(logJournal.remove(),
+                            journaled.length());
+                    sendNext();
+                } else {
+                    journalBatches(force);
+                }
+            });
+            return;
+        }
+
+        if (congestionControl != null) {
+            logBuffer.setBatchLines(congestionControl.getBatchLines());
+        }
+        List<Trace> batch;
+        String built;
+        do {
+            batch = takeBatch(force);
+            if (batch.isEmpty()) {
+                forceRequested = false;
+                return;
+            }
+            metrics.batchBuilt(batch.size());
+            built = buildPayload(batch);
+            if (built == null) {
+                clearInFlight();
+            }
+        } while (built == null);
+        final List<Trace> lines = batch;
+        final String payload = built;
+        LOG.debug("[elastest-plugin]: Message to send {}", payload);
+        inFlightBytes = LogFilter.utf8Length(payload);
+        send(payload, lines.size(), delivered -> {
+            if (delivered) {
+                metrics.payloadSent(lines.size(), payload.length());
+                clearInFlight();
+                sendNext();
+            } else {
+                journal(payload, lines.size());
+                clearInFlight();
+                journalBatches(force);
+            }
+        });
+    }
+
+    /**
+     * Takes the next batch ready in the buffer. Its lines are counted as on
+     * their way before they leave the buffer, so that
+     * {@link #getPendingLines()} never misses them, until
+     * {@link #clearInFlight()} is called.
+     */
+    private List<Trace> takeBatch(boolean force) {
+        inFlightLines = 1;
+        List<Trace> lines = logBuffer.nextBatch(force);
+        inFlightLines = lines.size();
+        return lines;
+    }
+
+    private void clearInFlight() {
+        inFlightLines = 0;
+        inFlightBytes = 0;
+    }
+
+    private void journalBatches(boolean force) {
+        List<Trace> lines;
+        while (!(lines = takeBatch(force)).isEmpty()) {
+            String payload = buildPayload(lines);
+            if (payload != null) {
+                journal(payload, lines.size());
+            }
+            clearInFlight();
+        }
+        forceRequested = false;
+        scheduleReplay();
+    }
+
+    /**
+     * Builds the payload of a batch. A batch whose payload cannot be built
+     * would fail again when retried, so it is dropped.
+     *
+     * @return The payload, or null if the batch has been dropped.
+     */
+    private String buildPayload(List<Trace> lines) {
+        try {
+            return elastestSubmiter.buildPayload(lines);
+        } catch (IOException e) {
+            unencodedLines.addAndGet(lines.size());
+            for (Trace line : lines) {
+                unencodedBytes.addAndGet(LogBuffer.sizeOf(line));
+            }
+            LOG.warn("[elastest-plugin]: Dropping {} log lines that cannot be sent to {}: {}",
+                    lines.size(), elastestSubmiter.getDescription(),
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    private void journal(String payload, int lines) {
+        if (logJournal.isEmpty()) {
+            logErrorMessage("[elastest-plugin]: Failed to send log data to "
+                    + elastestSubmiter.getSubmitterType() + ":"
+                    + elastestSubmiter.getDescription()
+                    + ". Log traces will be sent again when it is available.\n");
+        }
+        logJournal.append(payload, lines);
+    }
+
+    private void scheduleReplay() {
+        if (replayScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(() -> {
+                    replayScheduled.set(false);
+                    sendBatches(false);
+                }, JOURNAL_REPLAY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // The writer is shutting down, the journal is replayed by the
+                // final flush
+                replayScheduled.set(false);
+            }
         }
     }
 
@@ -194,14 +927,13 @@ public class ElasTestWriter implements Serializable {
         return externalJob;
     }
 
+    /**
+     * @return The queue of this build in the shared {@link LogDispatcher}.
+     */
     public ExecutorService getExecutor() {
         return executor;
     }
 
-    public void setExecutor(ExecutorService executor) {
-        this.executor = executor;
-    }
-
     /**
      * Write error message to errorStream
      */
@@ -216,36 +948,90 @@ public class ElasTestWriter implements Serializable {
         }
     }
 
-    private void sendPayload(final String payload) {
-        try {
-            int maxAttempts = 4;
-            int attempt = 0;
-            boolean sended = false;
-            // LOG.info("Send message in runnable: " + payload.toString());
-            while (attempt < maxAttempts && !sended) {
-                if (attempt > 0) {
-                    try {
-                        Thread.sleep(500);
-
-                    } catch (InterruptedException ie) {
-                    }
-                }
-                attempt++;
-                LOG.debug("[elastest-plugin]: Attempt to send {}", attempt);
-                sended = elastestSubmiter.push(payload.toString());
-            }
-            if (attempt > 4 && !sended) {
-                String msg = "[elastest-plugin]: Failed to send log data to "
-                        + elastestSubmiter.getSubmitterType() + ":"
-                        + elastestSubmiter.getDescription() + ".\n";
-                logErrorMessage(msg);
+    /**
+     * Pushes the payload without blocking the build queue, retrying it with
+     * exponential backoff, and then calls back in the build queue with true if
+     * it has been delivered. While the circuit of the destination is open, the
+     * payload is not sent and the callback gets false at once. While the
+     * window of the {@link CongestionControl} of the destination is full, the
+     * payload waits for a place in it.
+     *
+     * @param lines
+     *            lines of the payload if it is a batch taken from the buffer,
+     *            0 otherwise
+     */
+    private void send(final String payload, final int lines,
+            final Consumer<Boolean> onDelivered) {
+        sending = true;
+        attempt(payload, lines, 1, onDelivered);
+    }
+
+    private void attempt(final String payload, final int lines,
+            final int attempt, final Consumer<Boolean> onDelivered) {
+        if (congestionControl == null) {
+            attempt(payload, lines, attempt, null, onDelivered);
+            return;
+        }
+        // The place is taken first, a trial request of the circuit must be
+        // sent. A full window completes the place when one is given back.
+        CompletableFuture<CongestionControl.Permit> acquired = congestionControl
+                .acquire();
+        CongestionControl.Permit permit = acquired.getNow(null);
+        if (permit != null) {
+            attempt(payload, lines, attempt, permit, onDelivered);
+        } else {
+            executor.continueWhen(acquired, (granted, error) -> attempt(
+                    payload, lines, attempt, granted, onDelivered));
+        }
+    }
+
+    private void attempt(final String payload, final int lines,
+            final int attempt, final CongestionControl.Permit permit,
+            final Consumer<Boolean> onDelivered) {
+        if (!circuitBreaker.allowRequest()) {
+            LOG.debug("[elastest-plugin]: Delivery to {} suspended",
+                    elastestSubmiter.getDescription());
+            if (permit != null) {
+                congestionControl.release(permit);
             }
-        } catch (IOException e) {
-            String msg = "[elastest-plugin]: Failed to send log data to "
-                    + elastestSubmiter.getSubmitterType() + ":"
-                    + elastestSubmiter.getDescription() + ".\n"
-                    + ExceptionUtils.getStackTrace(e);
-            logErrorMessage(msg);
+            sending = false;
+            onDelivered.accept(false);
+            return;
         }
+        LOG.debug("[elastest-plugin]: Attempt to send {}", attempt);
+        final long start = System.nanoTime();
+        executor.continueWhen(elastestSubmiter.pushAsync(payload),
+                (delivered, error) -> {
+                    boolean sent = error == null
+                            && Boolean.TRUE.equals(delivered);
+                    metrics.requestCompleted(System.nanoTime() - start, sent);
+                    if (permit != null) {
+                        congestionControl.recordResponse(permit, lines, sent);
+                    }
+                    if (sent) {
+                        circuitBreaker.recordSuccess();
+                    } else {
+                        circuitBreaker.recordFailure();
+                    }
+                    if (!sent && error == null
+                            && attempt < MAX_SEND_ATTEMPTS) {
+                        metrics.retry();
+                        executor.continueAfter(
+                                Backoff.delay(attempt, RETRY_BASE_DELAY_MILLIS,
+                                        RETRY_MAX_DELAY_MILLIS),
+                                TimeUnit.MILLISECONDS, () -> attempt(payload,
+                                        lines, attempt + 1, onDelivered));
+                        return;
+                    }
+                    if (error != null) {
+                        LOG.warn(
+                                "[elastest-plugin]: Failed to send log data to {}:{}. {}",
+                                elastestSubmiter.getSubmitterType(),
+                                elastestSubmiter.getDescription(),
+                                ExceptionUtils.getStackTrace(error));
+                    }
+                    sending = false;
+                    onDelivered.accept(sent);
+                });
     }
 }
@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import java.util.regex.Pattern;
+
+/**
+ * Merges the lines of a multi-line event, such as a Java stack trace, into a
+ * single message. A line that matches the continuation pattern is appended to
+ * the event in progress, any other line starts a new event. An event is
+ * emitted when the next one starts, when it reaches the maximum number of
+ * lines, when no line has been added to it for the flush timeout or when the
+ * aggregator is flushed.
+ * <p>
+ * The event keeps the timestamp, the sequence number and the offset of its
+ * first line. Lines are joined with a line feed. The pattern is matched
+ * against the lines with their leading whitespace, which is kept in the
+ * event. Events are passed to the
+ * sink after the lock of the aggregator is released, so a sink that waits
+ * for room in the buffer never blocks other callers of the aggregator.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+class LineAggregator {
+    static final String DEFAULT_CONTINUATION_PATTERN = "^(\\s|at |Caused by:"
+            + "|Suppressed:|\\.\\.\\. \\d+ more)";
+    static final int DEFAULT_FLUSH_TIMEOUT_MILLIS = 500;
+    static final int DEFAULT_MAX_LINES = 200;
+
+    private final Pattern continuationPattern;
+    private final long flushTimeoutMillis;
+    private final int maxLines;
+    private final Sink sink;
+
+    private StringBuilder event;
+    private long eventTimestamp;
+    private long eventSequence;
+    private long eventOffset;
+    private long lastLineTimestamp;
+    private int eventLines;
+    private boolean timerPending;
+    // Events taken and not passed to the sink yet
+    private int emitting;
+
+    /**
+     * @param continuationPattern
+     *            lines in which this pattern is found are appended to the
+     *            previous line
+     * @param flushTimeoutMillis
+     *            time without new lines after which an event is emitted
+     * @param maxLines
+     *            maximum lines of an event
+     * @param sink
+     *            receives each event
+     */
+    LineAggregator(Pattern continuationPattern, long flushTimeoutMillis,
+            int maxLines, Sink sink) {
+        this.continuationPattern = continuationPattern;
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        this.maxLines = maxLines;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a line to the event in progress or starts a new event with it,
+     * emitting the previous one.
+     *
+     * @param line
+     *            message of the line
+     * @param timestamp
+     *            time in milliseconds when the line was written
+     * @param sequence
+     *            number of the line in the build
+     * @param offset
+     *            offset in bytes of the line in its console stream
+     * @return True if the caller has to call {@link #flushIfIdle(long)} after
+     *         the flush timeout. Only one call is requested at a time.
+     */
+    boolean add(String line, long timestamp, long sequence, long offset) {
+        Event finished;
+        boolean schedule;
+        synchronized (this) {
+            if (event != null && eventLines < maxLines
+                    && continuationPattern.matcher(line).find()) {
+                event.append('\n').append(line);
+                eventLines++;
+                lastLineTimestamp = timestamp;
+                return false;
+            }
+            finished = takeEvent();
+            event = new StringBuilder(line);
+            eventTimestamp = timestamp;
+            eventSequence = sequence;
+            eventOffset = offset;
+            lastLineTimestamp = timestamp;
+            eventLines = 1;
+            schedule = !timerPending;
+            timerPending = true;
+        }
+        emit(finished);
+        return schedule;
+    }
+
+    /**
+     * Emits the event in progress if no line has been added to it for the
+     * flush timeout.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @return The delay in milliseconds after which this method has to be
+     *         called again, or 0 if there is no event in progress.
+     */
+    long flushIfIdle(long now) {
+        Event finished = null;
+        synchronized (this) {
+            if (event != null) {
+                long idle = now - lastLineTimestamp;
+                if (idle < flushTimeoutMillis) {
+                    return flushTimeoutMillis - idle;
+                }
+                // The event would overtake the one before it
+                if (emitting > 0) {
+                    return flushTimeoutMillis;
+                }
+                finished = takeEvent();
+            }
+            timerPending = false;
+        }
+        emit(finished);
+        return 0;
+    }
+
+    /**
+     * Emits the event in progress, if any.
+     */
+    void flush() {
+        Event finished;
+        synchronized (this) {
+            finished = takeEvent();
+        }
+        emit(finished);
+    }
+
+    private Event takeEvent() {
+        if (event == null) {
+            return null;
+        }
+        Event finished = new Event(event.toString(), eventTimestamp,
+                eventSequence, eventOffset);
+        event = null;
+        emitting++;
+        return finished;
+    }
+
+    private void emit(Event finished) {
+        if (finished == null) {
+            return;
+        }
+        try {
+            sink.accept(finished.message, finished.timestamp,
+                    finished.sequence, finished.offset);
+        } finally {
+            synchronized (this) {
+                emitting--;
+            }
+        }
+    }
+
+    long getFlushTimeoutMillis() {
+        return flushTimeoutMillis;
+    }
+
+    private static final class Event {
+        final String message;
+        final long timestamp;
+        final long sequence;
+        final long offset;
+
+        Event(String message, long timestamp, long sequence, long offset) {
+            this.message = message;
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Receives the events with the timestamp, the sequence number and the
+     * offset of their first line.
+     */
+    interface Sink {
+        void accept(String message, long timestamp, long sequence,
+                long offset);
+    }
+}
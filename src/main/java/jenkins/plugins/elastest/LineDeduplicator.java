@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+/**
+ * Collapses runs of identical consecutive lines, such as the ones of retry
+ * loops, polling scripts or progress bars. The first line of a run is sent at
+ * once, and the lines that repeat it are counted and sent as a single trace
+ * with their number, the timestamps of the first and the last of them and
+ * the sequence number of the line they repeat.
+ * <p>
+ * Lines are compared by their length and a 64-bit FNV-1a hash of their
+ * characters, so no copy of the previous line is kept. The repeats are sent
+ * when a different line arrives, when the deduplicator is flushed or, while
+ * the line keeps repeating, every report interval. They are passed to the
+ * sink after the lock of the deduplicator is released.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+class LineDeduplicator {
+    static final long DEFAULT_REPORT_INTERVAL_MILLIS = 10 * 1000;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long reportIntervalMillis;
+    private final Sink sink;
+
+    private boolean hasLast;
+    private long lastHash;
+    private int lastLength;
+    // Sequence number of the line already sent
+    private long lastSequence;
+    private long repeats;
+    private long firstRepeatTimestamp;
+    private long lastRepeatTimestamp;
+    private long firstRepeatSequence;
+    private long firstRepeatOffset;
+
+    /**
+     * @param reportIntervalMillis
+     *            time after which the repeats of a line that keeps repeating
+     *            are sent
+     * @param sink
+     *            receives the repeats of each run
+     */
+    LineDeduplicator(long reportIntervalMillis, Sink sink) {
+        this.reportIntervalMillis = reportIntervalMillis;
+        this.sink = sink;
+    }
+
+    /**
+     * Counts the line if it repeats the previous one. Otherwise, the repeats
+     * of the previous line are sent and the line starts a new run.
+     *
+     * @return True if the line repeats the previous one and must not be sent.
+     */
+    boolean add(String line, long timestamp, long sequence, long offset) {
+        long hash = hash(line);
+        Repeats finished;
+        boolean repeat;
+        synchronized (this) {
+            repeat = hasLast && hash == lastHash
+                    && line.length() == lastLength;
+            if (repeat) {
+                if (repeats == 0) {
+                    firstRepeatTimestamp = timestamp;
+                    firstRepeatSequence = sequence;
+                    firstRepeatOffset = offset;
+                }
+                repeats++;
+                lastRepeatTimestamp = timestamp;
+                finished = timestamp
+                        - firstRepeatTimestamp >= reportIntervalMillis
+                                ? takeRepeats()
+                                : null;
+            } else {
+                finished = takeRepeats();
+                hasLast = true;
+                lastHash = hash;
+                lastLength = line.length();
+                lastSequence = sequence;
+            }
+        }
+        emit(finished);
+        return repeat;
+    }
+
+    /**
+     * Sends the repeats of the current line, if any. The next repeats are
+     * counted from zero.
+     */
+    void flush() {
+        Repeats finished;
+        synchronized (this) {
+            finished = takeRepeats();
+        }
+        emit(finished);
+    }
+
+    private Repeats takeRepeats() {
+        if (repeats == 0) {
+            return null;
+        }
+        Repeats finished = new Repeats(lastSequence, firstRepeatTimestamp,
+                lastRepeatTimestamp, repeats, firstRepeatSequence,
+                firstRepeatOffset);
+        repeats = 0;
+        return finished;
+    }
+
+    private void emit(Repeats finished) {
+        if (finished != null) {
+            sink.accept(finished.repeatOf, finished.firstTimestamp,
+                    finished.lastTimestamp, finished.count,
+                    finished.sequence, finished.offset);
+        }
+    }
+
+    static long hash(String line) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < line.length(); i++) {
+            hash ^= line.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static final class Repeats {
+        final long repeatOf;
+        final long firstTimestamp;
+        final long lastTimestamp;
+        final long count;
+        final long sequence;
+        final long offset;
+
+        Repeats(long repeatOf, long firstTimestamp, long lastTimestamp,
+                long count, long sequence, long offset) {
+            this.repeatOf = repeatOf;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.count = count;
+            this.sequence = sequence;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Receives the repeats of a line, with the sequence number of the line
+     * they repeat, the timestamps of the first and the last of them and the
+     * sequence number and offset of the first one.
+     */
+    interface Sink {
+        void accept(long repeatOf, long firstTimestamp, long lastTimestamp,
+                long repeats, long sequence, long offset);
+    }
+}
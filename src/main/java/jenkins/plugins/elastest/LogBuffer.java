@@ -0,0 +1,385 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jenkins.plugins.elastest.json.JsonCodec;
+import jenkins.plugins.elastest.json.Trace;
+import jenkins.plugins.elastest.utils.RecordFile;
+
+/**
+ * Buffers the console lines of a build until they are sent to ElasTest. Lines
+ * are handed out in batches limited by a number of lines and by a size in
+ * bytes. A batch is ready when it reaches one of those limits or when its
+ * oldest line has been waiting longer than the linger time.
+ * <p>
+ * The buffer is a bounded ring. When it is full, the {@link OverflowPolicy}
+ * decides whether the build waits, a line is dropped or the new lines are
+ * spilled to disk until there is room again. A line offered by a thread
+ * that must not wait, such as a task of the queue that sends the lines, is
+ * kept apart instead of blocking and moves to the ring when there is room.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+class LogBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(LogBuffer.class);
+
+    static final int DEFAULT_MAX_LINES = 500;
+    static final int DEFAULT_MAX_BYTES = 512 * 1024;
+    static final int DEFAULT_LINGER_MILLIS = 1000;
+    static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * What to do with a new line when the buffer is full.
+     */
+    enum OverflowPolicy {
+        /** Blocks the build until there is room in the buffer. */
+        BLOCK,
+        /** Discards the oldest line in the buffer. */
+        DROP_OLDEST,
+        /** Discards the new line. */
+        DROP_NEWEST,
+        /** Writes the new lines to a file until there is room again. */
+        SPILL_TO_DISK
+    }
+
+    private final int maxLines;
+    private final long maxBytes;
+    private final long lingerMillis;
+    private final OverflowPolicy overflowPolicy;
+    private final RecordFile spillFile;
+
+    private final Trace[] ring;
+    // Lines offered while the ring was full, which is then kept full. It
+    // holds up to maxLines lines, the ones past them are dropped.
+    private final ArrayDeque<Trace> overflow = new ArrayDeque<>();
+    private int batchLines;
+    private int head;
+    private int count;
+    private long bytes;
+    private long oldestLineNanos;
+    private int spilledLines;
+    private long spilledBytes;
+    private long droppedLines;
+    private long droppedBytes;
+    private boolean closed;
+
+    LogBuffer(int maxLines, long maxBytes, long lingerMillis) {
+        this(maxLines, maxBytes, lingerMillis, DEFAULT_CAPACITY,
+                OverflowPolicy.DROP_OLDEST, null);
+    }
+
+    /**
+     * @param spillFile
+     *            file where the lines are spilled, required only by the
+     *            {@link OverflowPolicy#SPILL_TO_DISK} policy
+     */
+    LogBuffer(int maxLines, long maxBytes, long lingerMillis, int capacity,
+            OverflowPolicy overflowPolicy, File spillFile) {
+        if (maxLines < 1 || maxBytes < 1 || lingerMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Batch limits must be positive numbers");
+        }
+        if (overflowPolicy == OverflowPolicy.SPILL_TO_DISK
+                && spillFile == null) {
+            throw new IllegalArgumentException(
+                    "A spill file is required to spill lines to disk");
+        }
+        this.maxLines = maxLines;
+        this.batchLines = maxLines;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = spillFile != null ? new RecordFile(spillFile) : null;
+        this.ring = new Trace[Math.max(capacity, maxLines)];
+    }
+
+    /**
+     * Adds a line at the end of the buffer, applying the overflow policy if
+     * the buffer is full.
+     *
+     * @param line
+     *            Trace of the line, not null
+     * @return the number of lines pending to be sent, including this one
+     */
+    synchronized int add(Trace line) {
+        return add(line, true);
+    }
+
+    /**
+     * Adds a line like {@link #add(Trace)}, but never waits for room in the
+     * buffer. With the {@link OverflowPolicy#BLOCK} policy the line is kept
+     * apart until the lines before it are sent.
+     *
+     * @param line
+     *            Trace of the line, not null
+     * @return the number of lines pending to be sent, including this one
+     */
+    synchronized int offer(Trace line) {
+        return add(line, false);
+    }
+
+    private int add(Trace line, boolean wait) {
+        if (closed) {
+            drop(line);
+            return size();
+        }
+        if (size() == 0) {
+            oldestLineNanos = System.nanoTime();
+        }
+
+        // Once lines are spilled, the new ones follow them to keep the order
+        if (spilledLines > 0) {
+            spill(line);
+            return size();
+        }
+
+        if (count == ring.length) {
+            switch (overflowPolicy) {
+            case BLOCK:
+                if (!wait) {
+                    if (overflow.size() < maxLines) {
+                        overflow.add(line);
+                    } else {
+                        drop(line);
+                    }
+                    return size();
+                }
+                while (count == ring.length && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (count == ring.length || closed) {
+                    drop(line);
+                    return size();
+                }
+                break;
+            case DROP_OLDEST:
+                drop(removeFirst());
+                break;
+            case DROP_NEWEST:
+                drop(line);
+                return size();
+            case SPILL_TO_DISK:
+                spill(line);
+                return size();
+            default:
+                break;
+            }
+        }
+
+        addLast(line);
+        return size();
+    }
+
+    /**
+     * @return True if the pending lines fill at least one batch.
+     */
+    synchronized boolean hasFullBatch() {
+        return count >= batchLines || bytes >= maxBytes || spilledLines > 0;
+    }
+
+    /**
+     * Removes and returns the next batch of lines if it is ready to be sent.
+     *
+     * @param force
+     *            if true, the pending lines are returned even if the batch is
+     *            neither full nor expired
+     * @return the lines of the batch in order of arrival, or an empty list if
+     *         there is no batch ready
+     */
+    synchronized List<Trace> nextBatch(boolean force) {
+        if (count == 0 || !(force || hasFullBatch() || isExpired())) {
+            return Collections.emptyList();
+        }
+
+        List<Trace> batch = new ArrayList<>(Math.min(count, batchLines));
+        long batchBytes = 0;
+        while (count > 0 && batch.size() < batchLines) {
+            long size = sizeOf(ring[head]);
+            if (!batch.isEmpty() && batchBytes + size > maxBytes) {
+                break;
+            }
+            batchBytes += size;
+            batch.add(removeFirst());
+        }
+        // The lines left behind arrived after the oldest one, so the age of
+        // the buffer is kept and they are sent as soon as it expires.
+        refillFromSpill();
+        while (!overflow.isEmpty() && count < ring.length) {
+            addLast(overflow.poll());
+        }
+        notifyAll();
+        return batch;
+    }
+
+    /**
+     * Sets the number of lines of the next batches, which cannot exceed the
+     * maximum given to the buffer.
+     */
+    synchronized void setBatchLines(int lines) {
+        batchLines = Math.max(1, Math.min(lines, maxLines));
+    }
+
+    synchronized int size() {
+        return count + spilledLines + overflow.size();
+    }
+
+    synchronized long getDroppedLines() {
+        return droppedLines;
+    }
+
+    /**
+     * @return Size of the lines dropped, measured like {@link #getBytes()}.
+     */
+    synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * @return UTF-8 bytes of the lines held in memory.
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * Discards the pending lines, counting them as dropped, and releases the
+     * producers waiting for room in the buffer.
+     */
+    synchronized void close() {
+        closed = true;
+        droppedLines += size();
+        droppedBytes += bytes + spilledBytes;
+        while (count > 0) {
+            removeFirst();
+        }
+        spilledLines = 0;
+        spilledBytes = 0;
+        for (Trace line : overflow) {
+            droppedBytes += sizeOf(line);
+        }
+        overflow.clear();
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error deleting spill file {}",
+                        spillFile.getFile());
+            }
+        }
+        notifyAll();
+    }
+
+    private void addLast(Trace line) {
+        ring[(head + count) % ring.length] = line;
+        count++;
+        bytes += sizeOf(line);
+    }
+
+    private Trace removeFirst() {
+        Trace line = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        count--;
+        bytes = count == 0 ? 0 : bytes - sizeOf(line);
+        return line;
+    }
+
+    private void spill(Trace line) {
+        try {
+            spillFile.append(JsonCodec.writeTraceAsBytes(line));
+            spilledLines++;
+            spilledBytes += sizeOf(line);
+        } catch (IOException e) {
+            LOG.warn("[elastest-plugin]: Error spilling log line to {}: {}",
+                    spillFile.getFile(), e.getMessage());
+            drop(line);
+        }
+    }
+
+    private void refillFromSpill() {
+        while (spilledLines > 0 && count < ring.length) {
+            try {
+                byte[] record = spillFile.next();
+                if (record == null) {
+                    dropSpilledLines();
+                } else {
+                    Trace line = JsonCodec.readTrace(record);
+                    spilledLines--;
+                    spilledBytes -= sizeOf(line);
+                    addLast(line);
+                }
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error reading spill file {}: {}",
+                        spillFile.getFile(), e.getMessage());
+                dropSpilledLines();
+            }
+        }
+    }
+
+    private void drop(Trace line) {
+        droppedLines++;
+        droppedBytes += sizeOf(line);
+    }
+
+    private void dropSpilledLines() {
+        droppedLines += spilledLines;
+        droppedBytes += spilledBytes;
+        spilledLines = 0;
+        spilledBytes = 0;
+    }
+
+    private boolean isExpired() {
+        return System.nanoTime() - oldestLineNanos >= TimeUnit.MILLISECONDS
+                .toNanos(lingerMillis);
+    }
+
+    /**
+     * @return UTF-8 length of the message of the line, which is the size
+     *         limited by the maximum bytes of the buffer.
+     */
+    static long sizeOf(Trace line) {
+        return LogFilter.utf8Length(line.getMessage());
+    }
+}
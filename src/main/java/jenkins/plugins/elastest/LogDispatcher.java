@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plugin-wide pool of threads that sends the logs of all the builds to
+ * ElasTest.
+ * <p>
+ * Each build gets its own {@link BuildQueue}, whose tasks run one at a time
+ * and in order. A queue with pending tasks takes a single task to the shared
+ * pool and goes back to the end of the line when it has more, so the workers
+ * serve the active builds in round-robin. Delayed tasks wait in a single
+ * timer thread and are then queued in their build queue.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+final class LogDispatcher {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(LogDispatcher.class);
+
+    static final int DEFAULT_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static LogDispatcher instance;
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor timer;
+
+    LogDispatcher(int threads) {
+        workers = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new DaemonThreadFactory("ElasTest log dispatcher"));
+        workers.allowCoreThreadTimeOut(true);
+        timer = new ScheduledThreadPoolExecutor(1,
+                new DaemonThreadFactory("ElasTest log timer"));
+        timer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param threads
+     *            size of the worker pool, the running dispatcher is resized
+     *            if it is different
+     * @return The dispatcher shared by all the builds.
+     */
+    static synchronized LogDispatcher getInstance(int threads) {
+        if (instance == null) {
+            instance = new LogDispatcher(threads);
+        } else {
+            instance.setThreads(threads);
+        }
+        return instance;
+    }
+
+    int getThreads() {
+        return workers.getMaximumPoolSize();
+    }
+
+    void setThreads(int threads) {
+        if (threads == getThreads()) {
+            return;
+        }
+        LOG.info("[elastest-plugin]: Resizing log dispatcher from {} to {} threads",
+                getThreads(), threads);
+        if (threads > getThreads()) {
+            workers.setMaximumPoolSize(threads);
+            workers.setCorePoolSize(threads);
+        } else {
+            workers.setCorePoolSize(threads);
+            workers.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * @return A new queue whose tasks run in order on the shared workers.
+     */
+    BuildQueue newQueue() {
+        return new BuildQueue();
+    }
+
+    /**
+     * Tasks of a single build. They run one after another, never at the same
+     * time. Once the queue is shut down, it rejects new tasks and terminates
+     * when the queued ones and their continuations have run.
+     */
+    final class BuildQueue extends AbstractExecutorService {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean dispatched = new AtomicBoolean();
+        // Tasks queued or running plus continuations not completed yet
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean shutdown;
+        private volatile Thread runner;
+
+        private BuildQueue() {
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (shutdown) {
+                throw new RejectedExecutionException(
+                        "The log queue of the build is shut down");
+            }
+            pending.incrementAndGet();
+            tasks.add(task);
+            dispatch();
+        }
+
+        /**
+         * Queues the task after the given delay.
+         */
+        ScheduledFuture<?> schedule(Runnable task, long delay,
+                TimeUnit unit) {
+            if (shutdown) {
+                throw new RejectedExecutionException(
+                        "The log queue of the build is shut down");
+            }
+            return timer.schedule(() -> {
+                try {
+                    execute(task);
+                } catch (RejectedExecutionException e) {
+                    // Shut down meanwhile, the pending logs are sent by the
+                    // last flush
+                }
+            }, delay, unit);
+        }
+
+        /**
+         * Runs the action in this queue when the future completes. The action
+         * runs even if the queue is shut down meanwhile, and the queue does
+         * not terminate before it has run.
+         */
+        <T> void continueWhen(CompletableFuture<T> future,
+                BiConsumer<? super T, ? super Throwable> action) {
+            pending.incrementAndGet();
+            future.whenComplete((result, error) -> {
+                tasks.add(() -> action.accept(result, error));
+                dispatch();
+            });
+        }
+
+        /**
+         * Runs the task in this queue after the given delay, like
+         * {@link #continueWhen(CompletableFuture, BiConsumer)}.
+         */
+        void continueAfter(long delay, TimeUnit unit, Runnable task) {
+            CompletableFuture<Void> elapsed = new CompletableFuture<>();
+            timer.schedule(() -> elapsed.complete(null), delay, unit);
+            continueWhen(elapsed, (result, error) -> task.run());
+        }
+
+        /**
+         * @return True if the current thread is running a task of this
+         *         queue, which must not wait for the tasks queued after it.
+         */
+        boolean isRunningTask() {
+            return runner == Thread.currentThread();
+        }
+
+        private void dispatch() {
+            if (!tasks.isEmpty() && dispatched.compareAndSet(false, true)) {
+                workers.execute(this::runNext);
+            }
+        }
+
+        private void runNext() {
+            try {
+                Runnable task = tasks.poll();
+                if (task != null) {
+                    runner = Thread.currentThread();
+                    try {
+                        task.run();
+                    } finally {
+                        runner = null;
+                        pending.decrementAndGet();
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("[elastest-plugin]: Error sending logs: {}",
+                        e.getMessage());
+            } finally {
+                dispatched.set(false);
+                dispatch();
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            List<Runnable> drained = new ArrayList<>();
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                drained.add(task);
+                pending.decrementAndGet();
+            }
+            return drained;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && pending.get() == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (!isTerminated()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    name + " #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
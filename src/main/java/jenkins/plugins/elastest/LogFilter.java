@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which console lines of a build are sent to ElasTest. A line is
+ * suppressed if it does not match the include pattern, if it matches the
+ * exclude pattern, if the build writes lines faster than the allowed rate or
+ * once the build has sent its byte budget. The patterns are compiled once per
+ * build.
+ * <p>
+ * The rate is limited with a token bucket that holds up to one second of
+ * lines, so short bursts are allowed.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public class LogFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(LogFilter.class);
+
+    private final Pattern includePattern;
+    private final Pattern excludePattern;
+    private final int maxLinesPerSecond;
+    private final long maxBytes;
+
+    private double tokens;
+    private long lastRefill = -1;
+    private long sentBytes;
+    private long filteredLines;
+    private long rateLimitedLines;
+    private long overBudgetLines;
+    private long reportedLines;
+
+    LogFilter(Pattern includePattern, Pattern excludePattern,
+            int maxLinesPerSecond, long maxBytes) {
+        this.includePattern = includePattern;
+        this.excludePattern = excludePattern;
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        this.maxBytes = maxBytes;
+        this.tokens = maxLinesPerSecond;
+    }
+
+    /**
+     * Creates the filter of a build.
+     *
+     * @param includePattern
+     *            regular expression that a line must contain to be sent, or
+     *            blank to send all the lines
+     * @param excludePattern
+     *            regular expression of the lines that are not sent, or blank
+     * @param maxLinesPerSecond
+     *            maximum lines sent per second, or 0 for no limit
+     * @param maxBytes
+     *            maximum bytes sent by the build, or 0 for no limit
+     * @return The filter, or null if no option limits the lines.
+     */
+    public static LogFilter create(String includePattern,
+            String excludePattern, int maxLinesPerSecond, long maxBytes) {
+        Pattern include = compile(includePattern);
+        Pattern exclude = compile(excludePattern);
+        if (include == null && exclude == null && maxLinesPerSecond <= 0
+                && maxBytes <= 0) {
+            return null;
+        }
+        return new LogFilter(include, exclude, Math.max(maxLinesPerSecond, 0),
+                Math.max(maxBytes, 0));
+    }
+
+    private static Pattern compile(String regex) {
+        if (StringUtils.isBlank(regex)) {
+            return null;
+        }
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            LOG.warn("[elastest-plugin]: Ignoring invalid log pattern {}: {}",
+                    regex, e.getDescription());
+            return null;
+        }
+    }
+
+    /**
+     * @param line
+     *            message of the line
+     * @param timestamp
+     *            time in milliseconds when the line was written
+     * @return True if the line has to be sent.
+     */
+    public synchronized boolean accept(String line, long timestamp) {
+        if ((includePattern != null && !includePattern.matcher(line).find())
+                || (excludePattern != null
+                        && excludePattern.matcher(line).find())) {
+            filteredLines++;
+            return false;
+        }
+        if (maxLinesPerSecond > 0 && !takeToken(timestamp)) {
+            rateLimitedLines++;
+            return false;
+        }
+        if (maxBytes > 0) {
+            long bytes = utf8Length(line);
+            if (sentBytes + bytes > maxBytes) {
+                overBudgetLines++;
+                return false;
+            }
+            sentBytes += bytes;
+        }
+        return true;
+    }
+
+    public synchronized long getSuppressedLines() {
+        return filteredLines + rateLimitedLines + overBudgetLines;
+    }
+
+    /**
+     * @return A message with the lines suppressed since the last summary, or
+     *         null if no line has been suppressed since then.
+     */
+    public synchronized String nextSummary() {
+        long suppressed = getSuppressedLines();
+        if (suppressed == reportedLines) {
+            return null;
+        }
+        reportedLines = suppressed;
+        return "[elastest-plugin]: " + suppressed
+                + " log lines were not sent to ElasTest (" + filteredLines
+                + " filtered, " + rateLimitedLines + " over the rate limit, "
+                + overBudgetLines + " over the byte budget)";
+    }
+
+    private boolean takeToken(long timestamp) {
+        if (lastRefill >= 0 && timestamp > lastRefill) {
+            tokens = Math.min(maxLinesPerSecond, tokens
+                    + (timestamp - lastRefill) * maxLinesPerSecond / 1000.0);
+        }
+        if (timestamp > lastRefill) {
+            lastRefill = timestamp;
+        }
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    static long utf8Length(String line) {
+        long length = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jenkins.plugins.elastest.utils.RecordFile;
+
+/**
+ * Append-only journal of the payloads of a build that could not be delivered
+ * to ElasTest. Payloads are stored in segment files and replayed in the same
+ * order they were written. A segment is deleted as soon as all its payloads
+ * have been replayed.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+class LogJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(LogJournal.class);
+
+    static final long DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private final File directory;
+    private final long segmentSize;
+    private final Deque<RecordFile> segments = new ArrayDeque<>();
+    private int nextSegment;
+    private int pendingPayloads;
+    private long pendingLines;
+    private long pendingBytes;
+    private long droppedLines;
+    private long droppedBytes;
+    private byte[] head;
+
+    LogJournal(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    LogJournal(File directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Appends a payload at the end of the journal. If it cannot be written,
+     * its lines are counted as dropped.
+     *
+     * @param payload
+     *            the serialized traces
+     * @param lines
+     *            number of log lines contained in the payload
+     */
+    synchronized void append(String payload, int lines) {
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        byte[] record = ByteBuffer.allocate(4 + data.length).putInt(lines)
+                .put(data).array();
+        try {
+            RecordFile tail = segments.peekLast();
+            if (tail == null || tail.length() >= segmentSize) {
+                tail = new RecordFile(new File(directory,
+                        String.format("segment-%05d.log", nextSegment++)));
+                segments.addLast(tail);
+            }
+            tail.append(record);
+            pendingPayloads++;
+            pendingLines += lines;
+            pendingBytes += data.length;
+        } catch (IOException e) {
+            LOG.warn("[elastest-plugin]: Error writing to log journal {}: {}",
+                    directory, e.getMessage());
+            droppedLines += lines;
+            droppedBytes += data.length;
+        }
+    }
+
+    /**
+     * Returns the oldest payload without removing it from the journal.
+     *
+     * @return the payload or null if the journal is empty
+     */
+    synchronized String peek() {
+        try {
+            while (head == null && !segments.isEmpty()) {
+                head = segments.peekFirst().next();
+                if (head == null) {
+                    if (segments.size() == 1) {
+                        break;
+                    }
+                    segments.removeFirst().close();
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("[elastest-plugin]: Error reading log journal {}: {}",
+                    directory, e.getMessage());
+            discard();
+        }
+        return head == null ? null
+                : new String(head, 4, head.length - 4, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes the payload returned by the last call to {@link #peek()}.
+     *
+     * @return the number of log lines of the payload removed
+     */
+    synchronized int remove() {
+        if (head == null) {
+            return 0;
+        }
+        int lines = ByteBuffer.wrap(head).getInt();
+        pendingPayloads--;
+        pendingLines -= lines;
+        pendingBytes -= head.length - 4;
+        head = null;
+        return lines;
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingPayloads == 0;
+    }
+
+    synchronized long getPendingLines() {
+        return pendingLines;
+    }
+
+    /**
+     * @return Bytes of the payloads not replayed yet.
+     */
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    synchronized long getDroppedLines() {
+        return droppedLines;
+    }
+
+    /**
+     * @return Bytes of the payloads dropped.
+     */
+    synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * Deletes the journal. The payloads not replayed yet are counted as
+     * dropped.
+     */
+    synchronized void close() {
+        discard();
+        if (directory.isDirectory() && !directory.delete()) {
+            LOG.debug("[elastest-plugin]: Log journal directory {} not deleted",
+                    directory);
+        }
+    }
+
+    private void discard() {
+        droppedLines += pendingLines;
+        droppedBytes += pendingBytes;
+        pendingLines = 0;
+        pendingBytes = 0;
+        pendingPayloads = 0;
+        head = null;
+        while (!segments.isEmpty()) {
+            try {
+                segments.removeFirst().close();
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error deleting log journal segment: {}",
+                        e.getMessage());
+            }
+        }
+    }
+}
@@ -32,7 +32,6 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * 
@@ -102,6 +101,9 @@ public class ExternalJob implements Serializable {
     @JsonProperty("maxExecutions")
     private Long maxExecutions = 0l;
 
+    @JsonProperty("droppedLogLines")
+    private long droppedLogLines;
+
     public ExternalJob() {
     }
 
@@ -327,6 +329,14 @@ public class ExternalJob implements Serializable {
         this.maxExecutions = maxExecutions;
     }
 
+    public long getDroppedLogLines() {
+        return droppedLogLines;
+    }
+
+    public void setDroppedLogLines(long droppedLogLines) {
+        this.droppedLogLines = droppedLogLines;
+    }
+
     @Override
     public boolean equals(java.lang.Object o) {
         if (this == o) {
@@ -357,8 +367,9 @@ public class ExternalJob implements Serializable {
                         .isFromIntegratedJenkins()
                 && Objects.equals(this.buildUrl, externalJob.buildUrl)
                 && Objects.equals(this.jobUrl, externalJob.jobUrl)
-                && Objects.equals(this.project, externalJob.project) && Objects
-                        .equals(this.maxExecutions, externalJob.maxExecutions);
+                && Objects.equals(this.project, externalJob.project)
+                && Objects.equals(this.maxExecutions, externalJob.maxExecutions)
+                && this.droppedLogLines == externalJob.droppedLogLines;
     }
 
     @Override
@@ -367,7 +378,7 @@ public class ExternalJob implements Serializable {
                 logstashPort, servicesIp, tSServices, envVars, result, isReady,
                 testResultFilePattern, testResults, sut, status, error,
                 fromIntegratedJenkins, buildUrl, jobUrl, project,
-                maxExecutions);
+                maxExecutions, droppedLogLines);
     }
 
     @Override
@@ -410,6 +421,8 @@ public class ExternalJob implements Serializable {
                 .append("\n");
         sb.append("    maxExecutions: ").append(toIndentedString(maxExecutions))
                 .append("\n");
+        sb.append("    droppedLogLines: ")
+                .append(toIndentedString(droppedLogLines)).append("\n");
         sb.append("}");
 
         return sb.toString();
@@ -427,13 +440,8 @@ public class ExternalJob implements Serializable {
     }
 
     public String toJSON() {
-        ObjectMapper mapper = new ObjectMapper();
-
-        // Object to JSON in String
-        String jsonInString;
         try {
-            jsonInString = mapper.writeValueAsString(this);
-            return jsonInString;
+            return JsonCodec.writeExternalJob(this);
 
         } catch (JsonProcessingException e) {
             // TODO Auto-generated catch block
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Shared JSON serialization for the plugin. Holds a single configured
+ * {@link ObjectMapper} and the {@link ObjectWriter}s and {@link ObjectReader}s
+ * derived from it, which are immutable and safe to use from any thread, so
+ * that callers do not build a new mapper (and its serializer caches) for each
+ * message.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public final class JsonCodec {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private static final ObjectWriter TRACE_WRITER = MAPPER
+            .writerFor(Trace.class);
+    private static final ObjectReader TRACE_READER = MAPPER
+            .readerFor(Trace.class);
+    private static final ObjectWriter EXTERNAL_JOB_WRITER = MAPPER
+            .writerFor(ExternalJob.class);
+    private static final ObjectReader EXTERNAL_JOB_READER = MAPPER
+            .readerFor(ExternalJob.class);
+    private static final ObjectWriter TEST_SUPPORT_SERVICES_WRITER = MAPPER
+            .writerFor(TestSupportServices.class);
+
+    /** Estimated size of a serialized trace, used to presize buffers. */
+    private static final int TRACE_SIZE_HINT = 160;
+    private static final SerializedString LINE_SEPARATOR = new SerializedString(
+            "\n");
+
+    private JsonCodec() {
+    }
+
+    public static String writeTrace(Trace trace)
+            throws JsonProcessingException {
+        return TRACE_WRITER.writeValueAsString(trace);
+    }
+
+    public static byte[] writeTraceAsBytes(Trace trace)
+            throws JsonProcessingException {
+        return TRACE_WRITER.writeValueAsBytes(trace);
+    }
+
+    public static Trace readTrace(byte[] json) throws IOException {
+        return TRACE_READER.readValue(json);
+    }
+
+    /**
+     * Serializes the given traces as a JSON array, streaming each trace
+     * straight into a single output buffer.
+     * 
+     * @param traces
+     *            traces to serialize
+     * @return the JSON array
+     * @throws IOException
+     *             if the traces could not be written
+     */
+    public static String writeTraces(List<Trace> traces) throws IOException {
+        StringWriter out = new StringWriter(
+                traces.size() * TRACE_SIZE_HINT + 2);
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartArray();
+            for (Trace trace : traces) {
+                writeTrace(generator, trace);
+            }
+            generator.writeEndArray();
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serializes a batch of traces as one JSON object per line, streaming
+     * them through a single generator.
+     * 
+     * @param traces
+     *            traces to serialize
+     * @return the traces separated by line feeds
+     * @throws IOException
+     *             if the traces could not be written
+     */
+    public static String writeTraceLines(List<Trace> traces)
+            throws IOException {
+        StringWriter out = new StringWriter(
+                traces.size() * (TRACE_SIZE_HINT + 1));
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.setRootValueSeparator(LINE_SEPARATOR);
+            for (Trace trace : traces) {
+                writeTrace(generator, trace);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a trace with the given generator. The fields match the ones
+     * produced by {@link #writeTrace(Trace)}.
+     * 
+     * @param generator
+     *            generator to write to
+     * @param trace
+     *            trace to write
+     * @throws IOException
+     *             if the trace could not be written
+     */
+    public static void writeTrace(JsonGenerator generator, Trace trace)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("component", trace.getComponent());
+        generator.writeStringField("exec", trace.getExec());
+        generator.writeStringField("stream", trace.getStream());
+        generator.writeStringField("message", trace.getMessage());
+        generator.writeStringField("@timestamp", trace.getTimestampStr());
+        if (trace.getSequence() != 0) {
+            generator.writeNumberField("sequence", trace.getSequence());
+        }
+        if (trace.getOffset() != 0) {
+            generator.writeNumberField("offset", trace.getOffset());
+        }
+        if (trace.getRepeats() != 0) {
+            generator.writeNumberField("repeats", trace.getRepeats());
+        }
+        if (trace.getRepeatOf() != 0) {
+            generator.writeNumberField("repeatOf", trace.getRepeatOf());
+        }
+        if (trace.getLastTimestampStr() != null) {
+            generator.writeStringField("lastTimestamp",
+                    trace.getLastTimestampStr());
+        }
+        generator.writeEndObject();
+    }
+
+    public static String writeExternalJob(ExternalJob externalJob)
+            throws JsonProcessingException {
+        return EXTERNAL_JOB_WRITER.writeValueAsString(externalJob);
+    }
+
+    public static ExternalJob readExternalJob(String json) throws IOException {
+        return EXTERNAL_JOB_READER.readValue(json);
+    }
+
+    public static String writeTestSupportServices(
+            TestSupportServices testSupportServices)
+            throws JsonProcessingException {
+        return TEST_SUPPORT_SERVICES_WRITER
+                .writeValueAsString(testSupportServices);
+    }
+}
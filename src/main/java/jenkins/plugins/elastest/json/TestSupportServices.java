@@ -27,7 +27,6 @@ import java.io.Serializable;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * 
@@ -79,8 +78,6 @@ public class TestSupportServices implements Serializable {
     }
 
     public String toJsonString() throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        String jsonInString = mapper.writeValueAsString(this);
-        return jsonInString;
+        return JsonCodec.writeTestSupportServices(this);
     }
 }
@@ -2,12 +2,14 @@ package jenkins.plugins.elastest.json;
 
 import java.io.Serializable;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class Trace implements Serializable {
     private static final long serialVersionUID = 1L;
+    public static final String DEFAULT_COMPONENT = "test";
+    public static final String DEFAULT_STREAM = "default_log";
 
     private String component;
     private String exec;
@@ -15,6 +17,21 @@ public class Trace implements Serializable {
     private String message;
     @JsonProperty("@timestamp")
     private String timestampStr;
+    // Number of the line in the build, 0 if not known
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long sequence;
+    // Offset in bytes of the line in the console stream that captured it
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long offset;
+    // Identical lines collapsed into this trace, after the first one
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long repeats;
+    // Sequence number of the line that the repeats are identical to
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long repeatOf;
+    @JsonProperty("lastTimestamp")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String lastTimestampStr;
 
     public Trace() {
         super();
@@ -30,6 +47,13 @@ public class Trace implements Serializable {
         this.timestampStr = timestampStr;
     }
 
+    public Trace(String component, String exec, String stream, String message,
+            String timestampStr, long sequence, long offset) {
+        this(component, exec, stream, message, timestampStr);
+        this.sequence = sequence;
+        this.offset = offset;
+    }
+
     public String getComponent() {
         return component;
     }
@@ -70,12 +94,49 @@ public class Trace implements Serializable {
         this.timestampStr = timestampStr;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getRepeats() {
+        return repeats;
+    }
+
+    public void setRepeats(long repeats) {
+        this.repeats = repeats;
+    }
+
+    public long getRepeatOf() {
+        return repeatOf;
+    }
+
+    public void setRepeatOf(long repeatOf) {
+        this.repeatOf = repeatOf;
+    }
+
+    public String getLastTimestampStr() {
+        return lastTimestampStr;
+    }
+
+    public void setLastTimestampStr(String lastTimestampStr) {
+        this.lastTimestampStr = lastTimestampStr;
+    }
+
     public String toJSON() {
-        ObjectMapper mapper = new ObjectMapper();
-        String jsonInString;
         try {
-            jsonInString = mapper.writeValueAsString(this);
-            return jsonInString;
+            return JsonCodec.writeTrace(this);
 
         } catch (JsonProcessingException e) {
             e.printStackTrace();
@@ -87,6 +148,9 @@ public class Trace implements Serializable {
     public String toString() {
         return "Trace [component=" + component + ", exec=" + exec + ", stream="
                 + stream + ", message=" + message 
-                + ", timestampStr=" + timestampStr + "]";
+                + ", timestampStr=" + timestampStr + ", sequence=" + sequence
+                + ", offset=" + offset + ", repeats=" + repeats
+                + ", repeatOf=" + repeatOf
+                + ", lastTimestampStr=" + lastTimestampStr + "]";
     }
 }
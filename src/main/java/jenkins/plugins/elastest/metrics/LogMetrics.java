@@ -0,0 +1,425 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.elastest.submitters.CircuitBreaker;
+import jenkins.plugins.elastest.submitters.CongestionControl;
+
+/**
+ * Counters and histograms of the log pipeline, for the whole installation or
+ * for one build. The metrics of a build are added to the ones of the
+ * installation as they are recorded. Counters are {@link LongAdder}s, so
+ * recording from many threads does not contend.
+ * <p>
+ * The installation and every active build are published as MXBeans under
+ * {@code jenkins.plugins.elastest:type=LogMetrics} and, when the Metrics
+ * plugin is installed, as gauges named {@code elastest.logs.*}. The metrics
+ * of a build are published with a number of their own next to the name of
+ * the build, so two writers of the same build never replace each other.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public final class LogMetrics implements LogMetricsMXBean {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(LogMetrics.class);
+    static final String DOMAIN = "jenkins.plugins.elastest";
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final LogMetrics INSTALLATION = new LogMetrics(
+            "installation", null, null, null, null);
+    private static final Set<LogMetrics> BUILDS = ConcurrentHashMap
+            .newKeySet();
+    // Lines dropped by the builds that have already finished
+    private static final LongAdder FINISHED_DROPPED_LINES = new LongAdder();
+    private static final LongAdder FINISHED_DROPPED_BYTES = new LongAdder();
+    private static volatile boolean installationRegistered;
+
+    private final String name;
+    private final long id;
+    private final LogMetrics parent;
+    private final LongSupplier queueDepth;
+    private final LongSupplier droppedLines;
+    private final LongSupplier droppedBytes;
+    private volatile ObjectName objectName;
+
+    private final LongAdder linesCaptured = new LongAdder();
+    private final LongAdder bytesCaptured = new LongAdder();
+    private final LongAdder linesEnqueued = new LongAdder();
+    private final LongAdder bytesEnqueued = new LongAdder();
+    private final LongAdder linesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final Histogram batchSize = new Histogram();
+    private final Histogram requestLatencyMillis = new Histogram();
+
+    private LogMetrics(String name, LogMetrics parent, LongSupplier queueDepth,
+            LongSupplier droppedLines, LongSupplier droppedBytes) {
+        this.name = name;
+        this.id = parent != null ? NEXT_ID.incrementAndGet() : 0;
+        this.parent = parent;
+        this.queueDepth = queueDepth;
+        this.droppedLines = droppedLines;
+        this.droppedBytes = droppedBytes;
+    }
+
+    /**
+     * @return The metrics of the whole installation, published the first
+     *         time they are requested.
+     */
+    public static LogMetrics installation() {
+        if (!installationRegistered) {
+            synchronized (LogMetrics.class) {
+                if (!installationRegistered) {
+                    installationRegistered = true;
+                    INSTALLATION.publish();
+                }
+            }
+        }
+        return INSTALLATION;
+    }
+
+    /**
+     * Creates and publishes the metrics of a build. They must be released
+     * with {@link #unregister()} when the build finishes sending its logs.
+     *
+     * @param name
+     *            name of the build
+     * @param queueDepth
+     *            lines of the build waiting to be sent
+     * @param droppedLines
+     *            lines of the build that will not be sent
+     * @param droppedBytes
+     *            size of the lines of the build that will not be sent
+     */
+    public static LogMetrics forBuild(String name, LongSupplier queueDepth,
+            LongSupplier droppedLines, LongSupplier droppedBytes) {
+        LogMetrics metrics = new LogMetrics(name, installation(), queueDepth,
+                droppedLines, droppedBytes);
+        BUILDS.add(metrics);
+        metrics.publish();
+        return metrics;
+    }
+
+    /**
+     * Stops publishing the metrics of a build. Its dropped lines are kept in
+     * the metrics of the installation.
+     */
+    public void unregister() {
+        if (parent != null && BUILDS.remove(this)) {
+            FINISHED_DROPPED_LINES.add(droppedLines.getAsLong());
+            FINISHED_DROPPED_BYTES.add(droppedBytes.getAsLong());
+            unpublish();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Number that tells apart the metrics of the writers of a build,
+     *         or 0 for the installation.
+     */
+    long getId() {
+        return id;
+    }
+
+    ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public void lineCaptured(int bytes) {
+        linesCaptured.increment();
+        bytesCaptured.add(bytes);
+        if (parent != null) {
+            parent.lineCaptured(bytes);
+        }
+    }
+
+    public void lineEnqueued(int bytes) {
+        linesEnqueued.increment();
+        bytesEnqueued.add(bytes);
+        if (parent != null) {
+            parent.lineEnqueued(bytes);
+        }
+    }
+
+    public void batchBuilt(int lines) {
+        batchSize.record(lines);
+        if (parent != null) {
+            parent.batchBuilt(lines);
+        }
+    }
+
+    /**
+     * @param lines
+     *            lines of the payload delivered
+     * @param chars
+     *            length of the payload
+     */
+    public void payloadSent(long lines, int chars) {
+        linesSent.add(lines);
+        bytesSent.add(chars);
+        if (parent != null) {
+            parent.payloadSent(lines, chars);
+        }
+    }
+
+    /**
+     * @param latencyNanos
+     *            time from the request to its answer
+     * @param delivered
+     *            true if the payload has been accepted
+     */
+    public void requestCompleted(long latencyNanos, boolean delivered) {
+        requestLatencyMillis
+                .record(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        if (!delivered) {
+            failedRequests.increment();
+        }
+        if (parent != null) {
+            parent.requestCompleted(latencyNanos, delivered);
+        }
+    }
+
+    public void retry() {
+        retries.increment();
+        if (parent != null) {
+            parent.retry();
+        }
+    }
+
+    @Override
+    public long getLinesCaptured() {
+        return linesCaptured.sum();
+    }
+
+    @Override
+    public long getBytesCaptured() {
+        return bytesCaptured.sum();
+    }
+
+    @Override
+    public long getLinesEnqueued() {
+        return linesEnqueued.sum();
+    }
+
+    @Override
+    public long getBytesEnqueued() {
+        return bytesEnqueued.sum();
+    }
+
+    @Override
+    public long getLinesSent() {
+        return linesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getLinesDropped() {
+        if (parent != null) {
+            return droppedLines.getAsLong();
+        }
+        long dropped = FINISHED_DROPPED_LINES.sum();
+        for (LogMetrics build : BUILDS) {
+            dropped += build.getLinesDropped();
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getBytesDropped() {
+        if (parent != null) {
+            return droppedBytes.getAsLong();
+        }
+        long dropped = FINISHED_DROPPED_BYTES.sum();
+        for (LogMetrics build : BUILDS) {
+            dropped += build.getBytesDropped();
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getQueueDepth() {
+        if (parent != null) {
+            return queueDepth.getAsLong();
+        }
+        long depth = 0;
+        for (LogMetrics build : BUILDS) {
+            depth += build.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getBatches() {
+        return batchSize.getCount();
+    }
+
+    @Override
+    public double getBatchSizeMean() {
+        return batchSize.getMean();
+    }
+
+    @Override
+    public long getBatchSizeP50() {
+        return batchSize.getPercentile(0.5);
+    }
+
+    @Override
+    public long getBatchSizeP99() {
+        return batchSize.getPercentile(0.99);
+    }
+
+    @Override
+    public long getRequests() {
+        return requestLatencyMillis.getCount();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    @Override
+    public long getRequestLatencyMillisP50() {
+        return requestLatencyMillis.getPercentile(0.5);
+    }
+
+    @Override
+    public long getRequestLatencyMillisP95() {
+        return requestLatencyMillis.getPercentile(0.95);
+    }
+
+    @Override
+    public long getRequestLatencyMillisP99() {
+        return requestLatencyMillis.getPercentile(0.99);
+    }
+
+    @Override
+    public long getRequestLatencyMillisMax() {
+        return requestLatencyMillis.getMax();
+    }
+
+    @Override
+    public Map<String, String> getCircuitStates() {
+        Map<String, String> states = new LinkedHashMap<>();
+        for (Map.Entry<String, CircuitBreaker.State> state : CircuitBreaker
+                .getStates().entrySet()) {
+            states.put(state.getKey(), state.getValue().name());
+        }
+        return states;
+    }
+
+    @Override
+    public Map<String, Integer> getAdaptiveBatchLines() {
+        return CongestionControl.getBatchLinesByDestination();
+    }
+
+    @Override
+    public Map<String, Integer> getAdaptiveWindows() {
+        return CongestionControl.getWindowsByDestination();
+    }
+
+    private void publish() {
+        try {
+            ObjectName newName = parent == null
+                    ? new ObjectName(DOMAIN + ":type=LogMetrics,scope=installation")
+                    : new ObjectName(DOMAIN + ":type=LogMetrics,scope=build,name="
+                            + ObjectName.quote(name) + ",id=" + id);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(newName)) {
+                server.unregisterMBean(newName);
+            }
+            server.registerMBean(this, newName);
+            objectName = newName;
+        } catch (JMException | RuntimeException e) {
+            LOG.warn("[elastest-plugin]: Unable to publish the log metrics of {}: {}",
+                    name, e.getMessage());
+        }
+        if (isMetricsPluginInstalled()) {
+            try {
+                MetricsPluginBridge.register(this, parent == null);
+            } catch (RuntimeException | LinkageError e) {
+                LOG.warn("[elastest-plugin]: Unable to publish the log metrics of {} in the Metrics plugin: {}",
+                        name, e.getMessage());
+            }
+        }
+    }
+
+    private void unpublish() {
+        ObjectName current = objectName;
+        if (current != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(current);
+            } catch (JMException | RuntimeException e) {
+                LOG.debug("[elastest-plugin]: Unable to unpublish the log metrics of {}: {}",
+                        name, e.getMessage());
+            }
+        }
+        if (isMetricsPluginInstalled()) {
+            try {
+                MetricsPluginBridge.unregister(this);
+            } catch (RuntimeException | LinkageError e) {
+                LOG.debug("[elastest-plugin]: Unable to unpublish the log metrics of {} in the Metrics plugin: {}",
+                        name, e.getMessage());
+            }
+        }
+    }
+
+    private static boolean isMetricsPluginInstalled() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null && jenkins.getPlugin("metrics") != null;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link LogMetrics} of the installation or of a build.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public interface LogMetricsMXBean {
+    long getLinesCaptured();
+
+    long getBytesCaptured();
+
+    long getLinesEnqueued();
+
+    /** UTF-8 bytes of the lines enqueued. */
+    long getBytesEnqueued();
+
+    long getLinesSent();
+
+    /** Characters of the payloads sent, equal to bytes for ASCII logs. */
+    long getBytesSent();
+
+    long getLinesDropped();
+
+    /**
+     * UTF-8 bytes of the lines dropped from the buffer and of the payloads
+     * dropped from the journal.
+     */
+    long getBytesDropped();
+
+    long getQueueDepth();
+
+    long getBatches();
+
+    double getBatchSizeMean();
+
+    long getBatchSizeP50();
+
+    long getBatchSizeP99();
+
+    long getRequests();
+
+    long getRetries();
+
+    long getFailedRequests();
+
+    long getRequestLatencyMillisP50();
+
+    long getRequestLatencyMillisP95();
+
+    long getRequestLatencyMillisP99();
+
+    long getRequestLatencyMillisMax();
+
+    /** State of the circuit breaker of each destination. */
+    Map<String, String> getCircuitStates();
+
+    /** Lines of the batches sent to each destination, adapted to it. */
+    Map<String, Integer> getAdaptiveBatchLines();
+
+    /** Requests that can be on their way at once to each destination. */
+    Map<String, Integer> getAdaptiveWindows();
+}
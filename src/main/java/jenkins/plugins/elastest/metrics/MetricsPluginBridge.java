@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.metrics;
+
+import java.util.function.ToLongFunction;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import jenkins.metrics.api.Metrics;
+
+/**
+ * Publishes {@link LogMetrics} as gauges of the Jenkins Metrics plugin. It is
+ * only loaded when the plugin is installed, since it is an optional
+ * dependency.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+final class MetricsPluginBridge {
+    private static final String PREFIX = "elastest.logs";
+    private static final String BUILD_PREFIX = PREFIX + ".build.";
+
+    private MetricsPluginBridge() {
+    }
+
+    static void register(LogMetrics metrics, boolean installation) {
+        MetricRegistry registry = Metrics.metricRegistry();
+        String prefix = prefixOf(metrics, installation);
+        registry.removeMatching((name, metric) -> name.startsWith(prefix + ".")
+                && (!installation || !name.startsWith(BUILD_PREFIX)));
+        gauge(registry, prefix, "lines.captured", metrics,
+                LogMetrics::getLinesCaptured);
+        gauge(registry, prefix, "bytes.captured", metrics,
+                LogMetrics::getBytesCaptured);
+        gauge(registry, prefix, "lines.enqueued", metrics,
+                LogMetrics::getLinesEnqueued);
+        gauge(registry, prefix, "bytes.enqueued", metrics,
+                LogMetrics::getBytesEnqueued);
+        gauge(registry, prefix, "lines.sent", metrics,
+                LogMetrics::getLinesSent);
+        gauge(registry, prefix, "bytes.sent", metrics,
+                LogMetrics::getBytesSent);
+        gauge(registry, prefix, "lines.dropped", metrics,
+                LogMetrics::getLinesDropped);
+        gauge(registry, prefix, "bytes.dropped", metrics,
+                LogMetrics::getBytesDropped);
+        gauge(registry, prefix, "queue.depth", metrics,
+                LogMetrics::getQueueDepth);
+        gauge(registry, prefix, "batch.size.p50", metrics,
+                LogMetrics::getBatchSizeP50);
+        gauge(registry, prefix, "batch.size.p99", metrics,
+                LogMetrics::getBatchSizeP99);
+        gauge(registry, prefix, "requests", metrics, LogMetrics::getRequests);
+        gauge(registry, prefix, "requests.retries", metrics,
+                LogMetrics::getRetries);
+        gauge(registry, prefix, "requests.failed", metrics,
+                LogMetrics::getFailedRequests);
+        gauge(registry, prefix, "requests.latency.p50", metrics,
+                LogMetrics::getRequestLatencyMillisP50);
+        gauge(registry, prefix, "requests.latency.p95", metrics,
+                LogMetrics::getRequestLatencyMillisP95);
+        gauge(registry, prefix, "requests.latency.p99", metrics,
+                LogMetrics::getRequestLatencyMillisP99);
+        if (installation) {
+            registry.register(prefix + ".circuits.open",
+                    (Gauge<Long>) () -> metrics.getCircuitStates().values()
+                            .stream().filter(state -> !"CLOSED".equals(state))
+                            .count());
+            // The smallest operating point, the one of the slowest destination
+            registry.register(prefix + ".adaptive.batch.lines",
+                    (Gauge<Integer>) () -> metrics.getAdaptiveBatchLines()
+                            .values().stream().min(Integer::compare)
+                            .orElse(0));
+            registry.register(prefix + ".adaptive.window",
+                    (Gauge<Integer>) () -> metrics.getAdaptiveWindows()
+                            .values().stream().min(Integer::compare)
+                            .orElse(0));
+        }
+    }
+
+    static void unregister(LogMetrics metrics) {
+        String prefix = prefixOf(metrics, false);
+        Metrics.metricRegistry()
+                .removeMatching((name, metric) -> name.startsWith(prefix + "."));
+    }
+
+    private static void gauge(MetricRegistry registry, String prefix,
+            String name, LogMetrics metrics, ToLongFunction<LogMetrics> value) {
+        registry.register(prefix + "." + name,
+                (Gauge<Long>) () -> value.applyAsLong(metrics));
+    }
+
+    private static String prefixOf(LogMetrics metrics, boolean installation) {
+        return installation ? PREFIX
+                : BUILD_PREFIX + metrics.getName()
+                        .replaceAll("[^A-Za-z0-9_-]+", "_") + "."
+                        + metrics.getId();
+    }
+}
@@ -45,6 +45,7 @@ import org.slf4j.LoggerFactory;
 import hudson.EnvVars;
 import hudson.Extension;
 import jenkins.YesNoMaybe;
+import jenkins.plugins.elastest.LogFilter;
 import jenkins.plugins.elastest.Messages;
 
 /**
@@ -82,6 +83,16 @@ public class ElasTestStep extends AbstractStepImpl {
     @Nonnull
     private boolean monitoring = false;
 
+    @Nonnull
+    private String logIncludePattern = "";
+
+    @Nonnull
+    private String logExcludePattern = "";
+
+    private int logMaxLinesPerSecond = 0;
+
+    private long logMaxBytes = 0;
+
     /**
      * Constructor.
      */
@@ -154,6 +165,51 @@ public class ElasTestStep extends AbstractStepImpl {
         this.sutParams = sutParams;
     }
 
+    public String getLogIncludePattern() {
+        return logIncludePattern;
+    }
+
+    @DataBoundSetter
+    public void setLogIncludePattern(String logIncludePattern) {
+        this.logIncludePattern = logIncludePattern;
+    }
+
+    public String getLogExcludePattern() {
+        return logExcludePattern;
+    }
+
+    @DataBoundSetter
+    public void setLogExcludePattern(String logExcludePattern) {
+        this.logExcludePattern = logExcludePattern;
+    }
+
+    public int getLogMaxLinesPerSecond() {
+        return logMaxLinesPerSecond;
+    }
+
+    @DataBoundSetter
+    public void setLogMaxLinesPerSecond(int logMaxLinesPerSecond) {
+        this.logMaxLinesPerSecond = logMaxLinesPerSecond;
+    }
+
+    public long getLogMaxBytes() {
+        return logMaxBytes;
+    }
+
+    @DataBoundSetter
+    public void setLogMaxBytes(long logMaxBytes) {
+        this.logMaxBytes = logMaxBytes;
+    }
+
+    /**
+     * @return The filter of the lines sent to ElasTest, or null if all the
+     *         lines are sent.
+     */
+    public LogFilter createLogFilter() {
+        return LogFilter.create(logIncludePattern, logExcludePattern,
+                logMaxLinesPerSecond, logMaxBytes);
+    }
+
     /**
      * Descriptor for {@link ElasTestStep}.
      */
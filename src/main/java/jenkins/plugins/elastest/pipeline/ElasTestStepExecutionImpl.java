@@ -115,6 +115,7 @@ public class ElasTestStepExecutionImpl extends AbstractStepExecutionImpl {
             }
             writer = new ElasTestWriter(build, null,
                     elasTestService.getExternalJobByBuildFullName(build.getFullDisplayName()));
+            writer.setLogFilter(elasTestStep.createLogFilter());
             elasTestBuild.setWriter(writer);
             // Set environment variables
             addEnvVars(build);
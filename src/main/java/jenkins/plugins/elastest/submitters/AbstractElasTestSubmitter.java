@@ -23,13 +23,15 @@
  */
 package jenkins.plugins.elastest.submitters;
 
-import java.util.Date;
+import java.io.IOException;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 
 import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.json.JsonCodec;
 import jenkins.plugins.elastest.json.Trace;
+import jenkins.plugins.elastest.utils.LogTimestamps;
 
 /**
  * 
@@ -57,21 +59,24 @@ abstract class AbstractElasTestSubmitter implements ElasTestSubmitter {
     }
 
     @Override
-    public String buildPayload(List<String> logLines, ExternalJob externalJob) {
-        Trace trace = new Trace("test", externalJob.gettJobExecId().toString(),
-                "default_log", logLines.get(0), new Date().toString());
-        String payload = trace.toJSON();
-        return payload;
+    public String buildPayload(List<Trace> traces) throws IOException {
+        return traces.size() == 1 ? JsonCodec.writeTrace(traces.get(0))
+                : JsonCodec.writeTraces(traces);
     }
 
     @Override
     public String buildPayload(String message, ExternalJob externalJob) {
-        Trace trace = new Trace("test", externalJob.gettJobExecId().toString(),
-                "default_log", message, new Date().toString());
+        Trace trace = new Trace(Trace.DEFAULT_COMPONENT,
+                externalJob.gettJobExecId().toString(), Trace.DEFAULT_STREAM,
+                message, LogTimestamps.format(LogTimestamps.now()));
         String payload = trace.toJSON();
         return payload;
     }
 
+    @Override
+    public void close() throws IOException {
+    }
+
     @Override
     public String getDescription() {
         return this.host + ":" + this.port;
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.slf4j.Logger;
+
+/**
+ * Logstash submitter backed by a non-blocking HTTP client. The requests are
+ * multiplexed over the pooled connections by a single I/O thread, and
+ * {@link #pushAsync(String)} completes its future from that thread, so no
+ * thread waits for Logstash to answer.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public class AsyncLogstashSubmitter extends LogstashSubmitter {
+    private transient final Logger logger = getLogger(lookup().lookupClass());
+
+    private static final int IO_THREADS = 1;
+    private static final int TIMEOUT_MILLIS = 3 * 1000;
+
+    final HttpAsyncClientBuilder asyncClientBuilder;
+    private CloseableHttpAsyncClient asyncClient;
+
+    public AsyncLogstashSubmitter(String host, int port, String key,
+            String username, String password) {
+        this(null, host, port, key, username, password,
+                new SubmitterSettings());
+    }
+
+    // primary constructor used by indexer factory
+    public AsyncLogstashSubmitter(String host, int port, String key,
+            String username, String password, SubmitterSettings settings) {
+        this(null, host, port, key, username, password, settings);
+    }
+
+    AsyncLogstashSubmitter(HttpAsyncClientBuilder factory, String host,
+            int port, String key, String username, String password,
+            SubmitterSettings settings) {
+        super((HttpClientBuilder) null, host, port, key, username, password,
+                settings);
+        asyncClientBuilder = factory;
+    }
+
+    /**
+     * Creates a client builder whose connections are pooled and kept alive
+     * between requests.
+     */
+    static HttpAsyncClientBuilder createAsyncClientBuilder(
+            SubmitterSettings settings) throws IOException {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(IO_THREADS)
+                .setConnectTimeout(TIMEOUT_MILLIS)
+                .setSoTimeout(TIMEOUT_MILLIS).build();
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig));
+        connectionManager
+                .setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(settings.getMaxConnectionsPerRoute());
+
+        return HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(createKeepAliveStrategy(TimeUnit.SECONDS
+                        .toMillis(settings.getConnectionIdleTimeout())));
+    }
+
+    synchronized CloseableHttpAsyncClient getAsyncClient() throws IOException {
+        if (asyncClient == null) {
+            asyncClient = (asyncClientBuilder != null ? asyncClientBuilder
+                    : createAsyncClientBuilder(settings)).build();
+            asyncClient.start();
+        }
+        return asyncClient;
+    }
+
+    @Override
+    public boolean push(String data) throws IOException {
+        try {
+            return pushAsync(data).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends the data to Logstash, gzip-compressed if compression is enabled
+     * and the data reaches the threshold. If Logstash rejects the compressed
+     * request, the data is sent again uncompressed and compression is turned
+     * off for this submitter.
+     */
+    @Override
+    public CompletableFuture<Boolean> pushAsync(String data) {
+        if (!shouldCompress(data)) {
+            return send(data, false).thenApply(successCodes::contains);
+        }
+        return send(data, true).thenCompose(statusCode -> {
+            if (!rejectedEncodingCodes.contains(statusCode)) {
+                return CompletableFuture
+                        .completedFuture(successCodes.contains(statusCode));
+            }
+            logger.warn(
+                    "[elastest-plugin]: {} rejected a gzip-compressed payload (HTTP {}), retrying uncompressed.",
+                    uri, statusCode);
+            return send(data, false).thenApply(plainStatusCode -> {
+                if (!successCodes.contains(plainStatusCode)) {
+                    return false;
+                }
+                disableCompression();
+                return true;
+            });
+        });
+    }
+
+    /**
+     * @return A future completed with the status code of the response, or
+     *         with -1 if no response was received.
+     */
+    private CompletableFuture<Integer> send(final String data,
+            final boolean compress) {
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        try {
+            HttpPost post = getHttpPost(data, compress);
+            getAsyncClient().execute(post, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    int statusCode = response.getStatusLine().getStatusCode();
+                    if (!successCodes.contains(statusCode) && !(compress
+                            && rejectedEncodingCodes.contains(statusCode))) {
+                        logger.error(
+                                "[elastest-plugin]: Error sendind log trace message {}, HTTP error code: {}",
+                                data, statusCode);
+                    }
+                    result.complete(statusCode);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    logger.error(
+                            "[elastest-plugin]: Error sendind log trace message {}: {}",
+                            data, e.getMessage());
+                    result.complete(-1);
+                }
+
+                @Override
+                public void cancelled() {
+                    result.complete(-1);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Closes the HTTP clients, the pooled connections and the I/O thread.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (asyncClient != null) {
+                asyncClient.close();
+                asyncClient = null;
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    @Override
+    public SubmitterType getSubmitterType() {
+        return SubmitterType.LOGSTASH_ASYNC;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+
+import org.slf4j.Logger;
+
+import jenkins.plugins.elastest.json.JsonCodec;
+import jenkins.plugins.elastest.json.Trace;
+
+/**
+ * Submitter that speaks the Beats (lumberjack v2) protocol to the Logstash
+ * beats input over one persistent TCP connection, shared by all the writers
+ * using this submitter.
+ * <p>
+ * Each push is sent in windows of up to {@link #MAX_WINDOW_SIZE} events. A
+ * window is announced with a window size frame, followed by one JSON frame per
+ * event, wrapped in a zlib compressed frame when compression is enabled and
+ * the window reaches the compression threshold. The push returns once the
+ * server has acknowledged the last event of each window. The payloads built
+ * by this submitter hold one JSON trace per line.
+ * <p>
+ * If the connection is lost, the push is retried once on a new connection
+ * from the first event not acknowledged, so the events already acknowledged
+ * are not sent twice. The pushes of all the writers share the connection and
+ * run one at a time. A push waits at most {@link #ACK_TIMEOUT_MILLIS} in
+ * total for acknowledgements, plus the connection timeouts, so a server that
+ * stops acknowledging delays the other builds by that much per push until
+ * its circuit breaker opens.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public class BeatsSubmitter extends AbstractElasTestSubmitter {
+    private transient final Logger logger = getLogger(lookup().lookupClass());
+
+    public static final int DEFAULT_PORT = 5044;
+    static final int MAX_WINDOW_SIZE = 1024;
+    static final int CONNECT_TIMEOUT_MILLIS = 3 * 1000;
+    static final int ACK_TIMEOUT_MILLIS = 30 * 1000;
+
+    static final byte VERSION = '2';
+    static final byte WINDOW_SIZE = 'W';
+    static final byte JSON = 'J';
+    static final byte COMPRESSED = 'C';
+    static final byte ACK = 'A';
+
+    final SubmitterSettings settings;
+    private Socket socket;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private long lastUsed;
+    // Events of the current push acknowledged by the server
+    private int ackedEvents;
+    private long ackDeadline;
+
+    public BeatsSubmitter(String host, int port, String key, String username,
+            String password) {
+        this(host, port, key, username, password, new SubmitterSettings());
+    }
+
+    // primary constructor used by indexer factory
+    public BeatsSubmitter(String host, int port, String key, String username,
+            String password, SubmitterSettings settings) {
+        super(host, port, key, username, password);
+        logger.info("[elastest-plugin]: Creating a Beats submitter for {}:{}.",
+                host, port);
+        this.settings = settings;
+    }
+
+    /**
+     * Builds a payload with one JSON trace per line.
+     */
+    @Override
+    public String buildPayload(List<Trace> traces) throws IOException {
+        return JsonCodec.writeTraceLines(traces);
+    }
+
+    @Override
+    public synchronized boolean push(String data) throws IOException {
+        List<byte[]> events = splitEvents(data);
+        if (events.isEmpty()) {
+            return true;
+        }
+        if (socket != null && isIdle()) {
+            logger.debug("[elastest-plugin]: Reconnecting idle Beats connection");
+            disconnect();
+        }
+        ackedEvents = 0;
+        ackDeadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(ACK_TIMEOUT_MILLIS);
+        try {
+            sendWindows(events);
+        } catch (IOException e) {
+            // The server may have closed the connection, retry on a new one
+            // from the first event not acknowledged
+            logger.debug("[elastest-plugin]: Beats connection lost after {} "
+                    + "events: {}", ackedEvents, e.getMessage());
+            disconnect();
+            if (e instanceof SocketTimeoutException) {
+                throw e;
+            }
+            try {
+                sendWindows(events);
+            } catch (IOException retryError) {
+                disconnect();
+                throw retryError;
+            }
+        }
+        lastUsed = System.nanoTime();
+        return true;
+    }
+
+    private void sendWindows(List<byte[]> events) throws IOException {
+        if (socket == null) {
+            connect();
+        }
+        for (int from = ackedEvents; from < events.size();
+                from += MAX_WINDOW_SIZE) {
+            List<byte[]> window = events.subList(from,
+                    Math.min(from + MAX_WINDOW_SIZE, events.size()));
+            writeWindow(window);
+            awaitAck(from, window.size());
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.setKeepAlive(true);
+            newSocket.connect(new InetSocketAddress(host, port),
+                    CONNECT_TIMEOUT_MILLIS);
+            newSocket.setSoTimeout(ACK_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+        socket = newSocket;
+        out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+    }
+
+    private void writeWindow(List<byte[]> window) throws IOException {
+        out.writeByte(VERSION);
+        out.writeByte(WINDOW_SIZE);
+        out.writeInt(window.size());
+
+        byte[] frames = encodeFrames(window);
+        if (shouldCompress(frames.length)) {
+            byte[] compressed = deflate(frames);
+            out.writeByte(VERSION);
+            out.writeByte(COMPRESSED);
+            out.writeInt(compressed.length);
+            out.write(compressed);
+        } else {
+            out.write(frames);
+        }
+        out.flush();
+    }
+
+    /**
+     * Waits for the acknowledgement of the last event of the window, until
+     * the deadline of the push. The server may acknowledge part of the window
+     * before, to keep the connection alive.
+     *
+     * @param from
+     *            index in the push of the first event of the window
+     */
+    private void awaitAck(int from, int lastSequence) throws IOException {
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS
+                    .toMillis(ackDeadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException(
+                        "Timed out waiting for a Beats acknowledgement");
+            }
+            socket.setSoTimeout((int) remaining);
+            byte version = in.readByte();
+            byte type = in.readByte();
+            if (version != VERSION || type != ACK) {
+                throw new IOException("Unexpected Beats frame " + (char) version
+                        + (char) type);
+            }
+            int sequence = in.readInt();
+            ackedEvents = from + sequence;
+            if (sequence == lastSequence) {
+                return;
+            }
+        }
+    }
+
+    boolean shouldCompress(int length) {
+        return settings.isCompressionEnabled()
+                && length >= settings.getCompressionThreshold();
+    }
+
+    static byte[] encodeFrames(List<byte[]> window) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream frames = new DataOutputStream(bytes);
+        int sequence = 0;
+        for (byte[] event : window) {
+            frames.writeByte(VERSION);
+            frames.writeByte(JSON);
+            frames.writeInt(++sequence);
+            frames.writeInt(event.length);
+            frames.write(event);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                data.length / 4 + 64);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(bytes)) {
+            deflater.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<byte[]> splitEvents(String data) {
+        List<byte[]> events = new ArrayList<>();
+        int start = 0;
+        while (start < data.length()) {
+            int end = data.indexOf('\n', start);
+            if (end < 0) {
+                end = data.length();
+            }
+            if (end > start) {
+                events.add(data.substring(start, end)
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            start = end + 1;
+        }
+        return events;
+    }
+
+    private boolean isIdle() {
+        return System.nanoTime() - lastUsed > TimeUnit.SECONDS
+                .toNanos(settings.getConnectionIdleTimeout());
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("[elastest-plugin]: Error closing Beats connection: {}",
+                        e.getMessage());
+            }
+            socket = null;
+            out = null;
+            in = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        disconnect();
+    }
+
+    @Override
+    public SubmitterType getSubmitterType() {
+        return SubmitterType.BEATS;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker shared by all the builds sending logs to the same
+ * destination.
+ * <p>
+ * While the circuit is {@link State#CLOSED}, requests are allowed and
+ * consecutive failures are counted. When they reach the threshold, the circuit
+ * opens and requests are refused without trying, so writers can keep their
+ * payloads at once instead of waiting for timeouts. Once the open time has
+ * elapsed, a single trial request is allowed ({@link State#HALF_OPEN}): if it
+ * succeeds the circuit closes, otherwise it opens again for twice as long, up
+ * to a maximum.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public final class CircuitBreaker {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_MILLIS = 5 * 1000;
+    static final long DEFAULT_MAX_OPEN_MILLIS = 60 * 1000;
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String destination;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long currentOpenMillis;
+    private long openUntil;
+
+    CircuitBreaker(String destination, int failureThreshold, long openMillis,
+            long maxOpenMillis, LongSupplier clock) {
+        this.destination = destination;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.clock = clock;
+        this.currentOpenMillis = openMillis;
+    }
+
+    private CircuitBreaker(String destination) {
+        this(destination, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS,
+                DEFAULT_MAX_OPEN_MILLIS, () -> TimeUnit.NANOSECONDS
+                        .toMillis(System.nanoTime()));
+    }
+
+    /**
+     * @param destination
+     *            description of the destination, such as host and port
+     * @return The circuit breaker shared by all the requests to the
+     *         destination.
+     */
+    public static CircuitBreaker forDestination(String destination) {
+        return BREAKERS.computeIfAbsent(destination, CircuitBreaker::new);
+    }
+
+    /**
+     * @return True if a request can be sent now. When the open time of the
+     *         circuit has elapsed, only the first caller gets true, and it
+     *         must report the result of its request.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (clock.getAsLong() < openUntil) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            LOG.info("[elastest-plugin]: Trying again to send logs to {}",
+                    destination);
+            return true;
+        default:
+            // The trial request has not finished yet
+            return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("[elastest-plugin]: Log delivery to {} recovered",
+                    destination);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        currentOpenMillis = openMillis;
+    }
+
+    public synchronized void recordFailure() {
+        switch (state) {
+        case CLOSED:
+            if (++failures >= failureThreshold) {
+                open();
+            }
+            break;
+        case HALF_OPEN:
+            currentOpenMillis = Math.min(currentOpenMillis * 2, maxOpenMillis);
+            open();
+            break;
+        default:
+            // Requests sent before the circuit opened
+            break;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The state of the circuit of each destination, by destination.
+     */
+    public static Map<String, State> getStates() {
+        Map<String, State> states = new TreeMap<>();
+        for (CircuitBreaker breaker : BREAKERS.values()) {
+            states.put(breaker.destination, breaker.getState());
+        }
+        return states;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        failures = 0;
+        openUntil = clock.getAsLong() + currentOpenMillis;
+        LOG.warn(
+                "[elastest-plugin]: Log delivery to {} is failing, not sending logs for {} ms",
+                destination, currentOpenMillis);
+    }
+}
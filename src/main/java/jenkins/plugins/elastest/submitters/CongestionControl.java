@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Congestion control shared by all the builds sending logs to the same
+ * destination. It finds the size of the batches and the number of requests
+ * sent at once that the destination can take, increasing them additively and
+ * decreasing them multiplicatively (AIMD).
+ * <p>
+ * While the requests are delivered within the target latency, the batch size
+ * grows by {@link #BATCH_LINES_STEP} lines each time a batch fills it, and the
+ * window of requests grows by one request each time as many requests as the
+ * window have been delivered. A request delivered later than the target
+ * latency stops the growth. A failed request, either an error answer or a
+ * timeout, halves both, once for all the requests that were already on their
+ * way when it happened.
+ * <p>
+ * A request that finds the window full waits in a queue, without polling,
+ * and gets its place when a request before it gives its place back.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public final class CongestionControl {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CongestionControl.class);
+
+    static final int MIN_BATCH_LINES = 10;
+    static final int INITIAL_BATCH_LINES = 100;
+    static final int BATCH_LINES_STEP = 50;
+    static final int INITIAL_WINDOW = 2;
+    static final int MAX_WINDOW = 64;
+    static final long DEFAULT_TARGET_LATENCY_MILLIS = 1000;
+
+    private static final ConcurrentMap<String, CongestionControl> CONTROLS = new ConcurrentHashMap<>();
+
+    private final String destination;
+    private final long targetLatencyMillis;
+    private final LongSupplier clock;
+
+    private int batchLines = INITIAL_BATCH_LINES;
+    private double window = INITIAL_WINDOW;
+    private int inFlight;
+    private long lastDecrease = Long.MIN_VALUE;
+    private final Queue<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+    CongestionControl(String destination, long targetLatencyMillis,
+            LongSupplier clock) {
+        this.destination = destination;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.clock = clock;
+    }
+
+    private CongestionControl(String destination) {
+        this(destination, DEFAULT_TARGET_LATENCY_MILLIS,
+                () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * @param destination
+     *            description of the destination, such as host and port
+     * @return The congestion control shared by all the requests to the
+     *         destination.
+     */
+    public static CongestionControl forDestination(String destination) {
+        return CONTROLS.computeIfAbsent(destination, CongestionControl::new);
+    }
+
+    /**
+     * @return Maximum number of lines of the next batches.
+     */
+    public synchronized int getBatchLines() {
+        return batchLines;
+    }
+
+    /**
+     * @return Maximum number of requests on their way at once.
+     */
+    public synchronized int getWindow() {
+        return (int) window;
+    }
+
+    /**
+     * Takes a place in the window for a request.
+     *
+     * @return A future completed with the place at once if the window has
+     *         room, or when a place is given back otherwise. It is completed
+     *         on the thread that gives the place back.
+     */
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> permit = new CompletableFuture<>();
+        synchronized (this) {
+            if (inFlight >= (int) window || !waiters.isEmpty()) {
+                waiters.add(permit);
+                return permit;
+            }
+            inFlight++;
+        }
+        permit.complete(new Permit(clock.getAsLong()));
+        return permit;
+    }
+
+    /**
+     * Gives back the place of a request that has not been sent.
+     */
+    public void release(Permit permit) {
+        List<CompletableFuture<Permit>> granted;
+        synchronized (this) {
+            if (!permit.markReturned()) {
+                return;
+            }
+            inFlight--;
+            granted = grantWaiters();
+        }
+        complete(granted);
+    }
+
+    /**
+     * Gives back the place of a request and adapts the batch size and the
+     * window to its result.
+     *
+     * @param permit
+     *            place returned by {@link #acquire()}
+     * @param lines
+     *            lines of the payload, or 0 if it is not a batch taken from
+     *            the buffer
+     * @param delivered
+     *            true if the destination has accepted the payload
+     */
+    public void recordResponse(Permit permit, int lines, boolean delivered) {
+        List<CompletableFuture<Permit>> granted;
+        synchronized (this) {
+            if (!permit.markReturned()) {
+                return;
+            }
+            inFlight--;
+            adapt(permit.sentAt, lines, delivered);
+            granted = grantWaiters();
+        }
+        complete(granted);
+    }
+
+    private void adapt(long sentAt, int lines, boolean delivered) {
+        long now = clock.getAsLong();
+        if (!delivered) {
+            // Requests sent before the last decrease do not decrease again
+            if (sentAt >= lastDecrease) {
+                lastDecrease = now;
+                batchLines = Math.max(MIN_BATCH_LINES, batchLines / 2);
+                window = Math.max(1, window / 2);
+                LOG.debug("[elastest-plugin]: Sending batches of {} lines, {} at once, to {}",
+                        batchLines, getWindow(), destination);
+            }
+            return;
+        }
+        if (now - sentAt > targetLatencyMillis) {
+            return;
+        }
+        if (lines >= batchLines) {
+            batchLines += BATCH_LINES_STEP;
+        }
+        window = Math.min(MAX_WINDOW, window + 1 / Math.floor(window));
+    }
+
+    private List<CompletableFuture<Permit>> grantWaiters() {
+        List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        while (!waiters.isEmpty() && inFlight < (int) window) {
+            inFlight++;
+            granted.add(waiters.poll());
+        }
+        return granted;
+    }
+
+    // The waiters are completed out of the lock, they run the requests
+    private void complete(List<CompletableFuture<Permit>> granted) {
+        for (CompletableFuture<Permit> waiter : granted) {
+            waiter.complete(new Permit(clock.getAsLong()));
+        }
+    }
+
+    synchronized int getWaiters() {
+        return waiters.size();
+    }
+
+    /**
+     * @return The batch size of each destination, by destination.
+     */
+    public static Map<String, Integer> getBatchLinesByDestination() {
+        Map<String, Integer> batchLines = new TreeMap<>();
+        for (CongestionControl control : CONTROLS.values()) {
+            batchLines.put(control.destination, control.getBatchLines());
+        }
+        return batchLines;
+    }
+
+    /**
+     * @return The window of each destination, by destination.
+     */
+    public static Map<String, Integer> getWindowsByDestination() {
+        Map<String, Integer> windows = new TreeMap<>();
+        for (CongestionControl control : CONTROLS.values()) {
+            windows.put(control.destination, control.getWindow());
+        }
+        return windows;
+    }
+
+    /**
+     * The place of a request in the window, with the time when it was sent.
+     * It is given back once, by {@link CongestionControl#release(Permit)} or
+     * by {@link CongestionControl#recordResponse(Permit, int, boolean)}.
+     */
+    public static final class Permit {
+        final long sentAt;
+        private boolean returned;
+
+        Permit(long sentAt) {
+            this.sentAt = sentAt;
+        }
+
+        // Called with the lock of the congestion control
+        private boolean markReturned() {
+            if (returned) {
+                return false;
+            }
+            returned = true;
+            return true;
+        }
+    }
+}
@@ -23,19 +23,22 @@
  */
 package jenkins.plugins.elastest.submitters;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.json.Trace;
 
 /**
  * 
  * @author Francisco R. Díaz
  * @since 0.0.1
  */
-public interface ElasTestSubmitter {
+public interface ElasTestSubmitter extends Closeable {
     static enum SubmitterType {
-        LOGSTASH("logstash");
+        LOGSTASH("logstash"), LOGSTASH_ASYNC("logstash-async"), BEATS("beats");
 
         private final String name;
 
@@ -67,13 +70,37 @@ public interface ElasTestSubmitter {
     boolean push(String data) throws IOException;
 
     /**
-     * Bulds a String playload compatible with the Logstash input.
+     * Sends the log data to ElasTest without blocking the caller, when the
+     * submitter supports it. By default, the data is sent with
+     * {@link #push(String)} before returning.
+     *
+     * @param data
+     *            The serialized data, not null
+     * @return A future completed with true if the data has been delivered,
+     *         or exceptionally if it could not be written to the server
+     */
+    default CompletableFuture<Boolean> pushAsync(String data) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            result.complete(push(data));
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Bulds a String playload compatible with the Logstash input. A single
+     * trace is sent as one JSON trace and several traces as a JSON array,
+     * which the Logstash json codec splits into one event per line.
      * 
-     * @param logLines
-     * @param externalJob
+     * @param traces
+     *            traces of the log lines, already timestamped
      * @return
+     * @throws IOException
+     *             if the traces cannot be written as JSON
      */
-    String buildPayload(List<String> logLines, ExternalJob externalJob);
+    String buildPayload(List<Trace> traces) throws IOException;
     
     /**
      * Bulds a String playload compatible with the Logstash input.
@@ -83,4 +110,10 @@ public interface ElasTestSubmitter {
      * @return
      */
     String buildPayload(String message, ExternalJob externalJob);
+
+    /**
+     * Releases the resources, such as connections, held by the submitter.
+     */
+    @Override
+    void close() throws IOException;
 }
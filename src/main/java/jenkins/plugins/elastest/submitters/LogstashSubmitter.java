@@ -34,23 +34,35 @@ import java.io.PrintStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Range;
 
 /**
- * Logstash submitter.
+ * Logstash submitter. It keeps a long-lived HTTP client backed by a pool of
+ * persistent connections that is shared by all the writers using this
+ * submitter, so that consecutive pushes reuse the same TCP connections.
  *
  * @author Francisco R. Díaz
  * @since 0.0.1
@@ -59,18 +71,39 @@ public class LogstashSubmitter extends AbstractElasTestSubmitter {
     private transient final Logger logger = getLogger(lookup().lookupClass());
 
     final HttpClientBuilder clientBuilder;
+    // False if the builder was given, and then it is not changed
+    private final boolean ownsClientBuilder;
     final URI uri;
     final String auth;
+    final SubmitterSettings settings;
     final Range<Integer> successCodes = closedOpen(200, 300);
+    // Responses of servers that do not accept a gzip-encoded request body
+    final Set<Integer> rejectedEncodingCodes = ImmutableSet.of(
+            HttpStatus.SC_BAD_REQUEST, HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE);
+    private CloseableHttpClient httpClient;
+    private volatile boolean compressionRejected;
 
-    // primary constructor used by indexer factory
     public LogstashSubmitter(String host, int port, String key, String username,
             String password) {
-        this(null, host, port, key, username, password);
+        this(null, host, port, key, username, password,
+                new SubmitterSettings());
+    }
+
+    // primary constructor used by indexer factory
+    public LogstashSubmitter(String host, int port, String key, String username,
+            String password, SubmitterSettings settings) {
+        this(null, host, port, key, username, password, settings);
     }
 
     LogstashSubmitter(HttpClientBuilder factory, String host, int port,
             String key, String username, String password) {
+        this(factory, host, port, key, username, password,
+                new SubmitterSettings());
+    }
+
+    LogstashSubmitter(HttpClientBuilder factory, String host, int port,
+            String key, String username, String password,
+            SubmitterSettings settings) {
         super(host, port, key, username, password);
         logger.info("[elastest-plugin]: Creating a Logstash submitter.");
 
@@ -92,10 +125,64 @@ public class LogstashSubmitter extends AbstractElasTestSubmitter {
             auth = null;
         }
 
-        clientBuilder = factory == null ? HttpClientBuilder.create() : factory;
+        this.settings = settings;
+        clientBuilder = factory == null ? createClientBuilder(settings)
+                : factory;
+        ownsClientBuilder = factory == null;
     }
 
-    HttpPost getHttpPost(String data) {
+    /**
+     * Creates a client builder whose connections are pooled and kept alive
+     * between requests. Idle connections are evicted in background and stale
+     * ones are validated before being reused.
+     */
+    static HttpClientBuilder createClientBuilder(SubmitterSettings settings) {
+        final long idleTimeoutMillis = TimeUnit.SECONDS
+                .toMillis(settings.getConnectionIdleTimeout());
+        return HttpClientBuilder.create()
+                .setConnectionManager(createConnectionManager(settings))
+                .setKeepAliveStrategy(
+                        createKeepAliveStrategy(idleTimeoutMillis))
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static PoolingHttpClientConnectionManager createConnectionManager(
+            SubmitterSettings settings) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager
+                .setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(settings.getMaxConnectionsPerRoute());
+        connectionManager.setValidateAfterInactivity(2 * 1000);
+        return connectionManager;
+    }
+
+    /**
+     * Keeps connections alive as long as the server allows, but never longer
+     * than the idle timeout.
+     */
+    static ConnectionKeepAliveStrategy createKeepAliveStrategy(
+            final long idleTimeoutMillis) {
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                    .getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, idleTimeoutMillis)
+                    : idleTimeoutMillis;
+        };
+    }
+
+    synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = clientBuilder.build();
+        }
+        return httpClient;
+    }
+
+    HttpPost getHttpPost(String data) throws IOException {
+        return getHttpPost(data, shouldCompress(data));
+    }
+
+    HttpPost getHttpPost(String data, boolean compress) throws IOException {
         HttpPost postRequest;
         RequestConfig.Builder requestConfig = RequestConfig.custom();
         requestConfig.setConnectTimeout(3 * 1000);
@@ -104,46 +191,126 @@ public class LogstashSubmitter extends AbstractElasTestSubmitter {
 
         postRequest = new HttpPost(uri);
         postRequest.setConfig(requestConfig.build());
-        StringEntity input = new StringEntity(data,
-                ContentType.APPLICATION_JSON);
-        postRequest.setEntity(input);
+        if (compress) {
+            ByteArrayEntity input = new ByteArrayEntity(gzip(data),
+                    ContentType.APPLICATION_JSON);
+            input.setContentEncoding("gzip");
+            postRequest.setEntity(input);
+        } else {
+            StringEntity input = new StringEntity(data,
+                    ContentType.APPLICATION_JSON);
+            postRequest.setEntity(input);
+        }
         if (auth != null) {
             postRequest.addHeader("Authorization", "Basic " + auth);
         }
         return postRequest;
     }
 
+    /**
+     * Sends the data to Logstash. When compression is enabled and the data
+     * reaches the threshold, it is sent gzip-compressed. If Logstash rejects
+     * the compressed request, the data is sent again uncompressed and
+     * compression is turned off for this submitter.
+     */
     @Override
     public boolean push(String data) throws IOException {
-        CloseableHttpClient httpClient = null;
+        if (shouldCompress(data)) {
+            int statusCode = send(data, true);
+            if (!rejectedEncodingCodes.contains(statusCode)) {
+                return successCodes.contains(statusCode);
+            }
+            logger.warn(
+                    "[elastest-plugin]: {} rejected a gzip-compressed payload (HTTP {}), retrying uncompressed.",
+                    uri, statusCode);
+            if (successCodes.contains(send(data, false))) {
+                disableCompression();
+                return true;
+            }
+            return false;
+        }
+        return successCodes.contains(send(data, false));
+    }
+
+    /**
+     * @return The status code of the response, or -1 if no response was
+     *         received.
+     */
+    private int send(String data, boolean compress) throws IOException {
         CloseableHttpResponse response = null;
-        HttpPost post = getHttpPost(data);
-        boolean sentMessage = false;
+        HttpPost post = getHttpPost(data, compress);
+        int statusCode = -1;
 
         try {
-            httpClient = clientBuilder.build();
-            response = httpClient.execute(post);
+            response = getHttpClient().execute(post);
+            statusCode = response.getStatusLine().getStatusCode();
 
-            if (!successCodes
-                    .contains(response.getStatusLine().getStatusCode())) {
+            if (!successCodes.contains(statusCode) && !(compress
+                    && rejectedEncodingCodes.contains(statusCode))) {
                 throw new IOException(this.getErrorMessage(response));
             }
-            sentMessage = true;
         } catch (RuntimeException re) {
             throw re;
         } catch (Exception e) {
-            logger.error(
-                    "[elastest-plugin]: Error sendind log trace message {} ",
-                    data);
+            logger.warn(
+                    "[elastest-plugin]: Error sending {} log traces to {}: {}",
+                    countTraces(data), uri, e.getMessage());
         } finally {
             if (response != null) {
+                // The entity must be consumed to return the connection to
+                // the pool instead of closing it
+                EntityUtils.consumeQuietly(response.getEntity());
                 response.close();
             }
-            if (httpClient != null) {
-                httpClient.close();
+        }
+        return statusCode;
+    }
+
+    /**
+     * Counts the traces of a payload by their timestamp field, which is
+     * escaped when it appears inside a message.
+     */
+    static int countTraces(String data) {
+        return StringUtils.countMatches(data, "\"@timestamp\":");
+    }
+
+    boolean shouldCompress(String data) {
+        return settings.isCompressionEnabled() && !compressionRejected
+                && data.length() >= settings.getCompressionThreshold();
+    }
+
+    void disableCompression() {
+        if (!compressionRejected) {
+            compressionRejected = true;
+            logger.warn("[elastest-plugin]: Disabling log compression for {}.",
+                    uri);
+        }
+    }
+
+    static byte[] gzip(String data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                data.length() / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Closes the HTTP client and all the pooled connections. A later push
+     * builds a new client with a new pool, so a writer still using the
+     * submitter is not left with a pool that is shut down.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+            if (ownsClientBuilder) {
+                clientBuilder.setConnectionManager(
+                        createConnectionManager(settings));
             }
         }
-        return sentMessage;
     }
 
     private String getErrorMessage(CloseableHttpResponse response) {
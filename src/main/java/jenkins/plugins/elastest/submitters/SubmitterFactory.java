@@ -23,38 +23,77 @@
  */
 package jenkins.plugins.elastest.submitters;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
 
 /**
- * Factory for AbstractElasTestSubmitter objects.
+ * Factory for AbstractElasTestSubmitter objects. Submitters are long-lived
+ * and cached by destination: type, host, port, key, credentials and settings.
+ * Writers sending to the same destination share its submitter, and writers
+ * sending to different destinations do not replace each other's.
+ * <p>
+ * Each submitter counts the writers using it. A writer gets it with
+ * {@link #getInstance} and gives it back with {@link #release}. A submitter
+ * that nobody uses for {@link #IDLE_EVICTION_MILLIS} is closed and removed
+ * the next time a submitter is created or released. Looking up a cached
+ * submitter takes no lock.
  *
  * @author Francisco R. Díaz
  * @since 0.0.1
  */
 public final class SubmitterFactory {
-    private static AbstractElasTestSubmitter instance = null;
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SubmitterFactory.class);
+    static final long IDLE_EVICTION_MILLIS = 5 * 60 * 1000;
+
+    private static final ConcurrentMap<Destination, CachedSubmitter> CACHE = new ConcurrentHashMap<>();
 
     private static final Map<SubmitterType, Class<?>> INDEXER_MAP;
     static {
         Map<SubmitterType, Class<?>> indexerMap = new HashMap<SubmitterType, Class<?>>();
 
         indexerMap.put(SubmitterType.LOGSTASH, LogstashSubmitter.class);
+        indexerMap.put(SubmitterType.LOGSTASH_ASYNC,
+                AsyncLogstashSubmitter.class);
+        indexerMap.put(SubmitterType.BEATS, BeatsSubmitter.class);
 
         INDEXER_MAP = Collections.unmodifiableMap(indexerMap);
     }
 
-    public static synchronized ElasTestSubmitter getInstance(SubmitterType type,
+    public static ElasTestSubmitter getInstance(SubmitterType type,
             String host, Integer port, String key, String username,
             String password) throws InstantiationException {
+        return getInstance(type, host, port, key, username, password,
+                new SubmitterSettings());
+    }
+
+    /**
+     * Gets the submitter of a destination, creating it if it is not cached,
+     * and counts the caller as one of its users.
+     *
+     * @return The submitter, to be given back with {@link #release}.
+     * @throws InstantiationException
+     *             if the type is unknown or the submitter cannot be created
+     */
+    public static ElasTestSubmitter getInstance(SubmitterType type,
+            String host, Integer port, String key, String username,
+            String password, SubmitterSettings settings)
+            throws InstantiationException {
         if (type == null || !INDEXER_MAP.containsKey(type)) {
             throw new InstantiationException(
                     "[elastest-plugin]: Unknown IndexerType '" + type
@@ -62,42 +101,190 @@ public final class SubmitterFactory {
         }
 
         port = (port == null ? Integer.valueOf(-1) : port);
+        Destination destination = new Destination(type, host, port, key,
+                username, password, settings);
 
-        if (shouldRefreshInstance(type, host, port, key, username, password)) {
-            try {
-                Class<?> indexerClass = INDEXER_MAP.get(type);
-                Constructor<?> constructor = indexerClass.getConstructor(
-                        String.class, int.class, String.class, String.class,
-                        String.class);
-                instance = (AbstractElasTestSubmitter) constructor
-                        .newInstance(host, port, key, username, password);
-            } catch (NoSuchMethodException e) {
-                throw new InstantiationException(
-                        ExceptionUtils.getRootCauseMessage(e));
-            } catch (InvocationTargetException e) {
-                throw new InstantiationException(
-                        ExceptionUtils.getRootCauseMessage(e));
-            } catch (IllegalAccessException e) {
-                throw new InstantiationException(
-                        ExceptionUtils.getRootCauseMessage(e));
+        while (true) {
+            CachedSubmitter cached = CACHE.get(destination);
+            if (cached == null) {
+                evictIdle(System.nanoTime());
+                CachedSubmitter created = new CachedSubmitter(
+                        create(destination));
+                cached = CACHE.putIfAbsent(destination, created);
+                if (cached == null) {
+                    cached = created;
+                } else {
+                    closeQuietly(created.submitter);
+                }
+            }
+            if (cached.retain()) {
+                return cached.submitter;
+            }
+            // Evicted meanwhile
+            CACHE.remove(destination, cached);
+        }
+    }
+
+    /**
+     * Stops counting the caller as a user of the submitter, which is closed
+     * once it has been idle for {@link #IDLE_EVICTION_MILLIS}.
+     */
+    public static void release(ElasTestSubmitter submitter) {
+        long now = System.nanoTime();
+        for (CachedSubmitter cached : CACHE.values()) {
+            if (cached.submitter == submitter) {
+                cached.release(now);
+            }
+        }
+        evictIdle(now);
+    }
+
+    /**
+     * Closes and removes the submitters that have not been used since
+     * {@link #IDLE_EVICTION_MILLIS} before the given time.
+     */
+    static void evictIdle(long now) {
+        for (Map.Entry<Destination, CachedSubmitter> entry : CACHE
+                .entrySet()) {
+            CachedSubmitter cached = entry.getValue();
+            if (cached.evictIfIdle(now)) {
+                CACHE.remove(entry.getKey(), cached);
+                LOG.debug("[elastest-plugin]: Closing idle submitter {}",
+                        cached.submitter.getDescription());
+                closeQuietly(cached.submitter);
             }
         }
+    }
 
-        return instance;
+    static int cachedSubmitters() {
+        return CACHE.size();
     }
 
-    private static boolean shouldRefreshInstance(SubmitterType type, String host,
-            int port, String key, String username, String password) {
-        if (instance == null) {
+    private static AbstractElasTestSubmitter create(Destination destination)
+            throws InstantiationException {
+        try {
+            Class<?> indexerClass = INDEXER_MAP.get(destination.type);
+            Constructor<?> constructor = indexerClass.getConstructor(
+                    String.class, int.class, String.class, String.class,
+                    String.class, SubmitterSettings.class);
+            return (AbstractElasTestSubmitter) constructor.newInstance(
+                    destination.host, destination.port, destination.key,
+                    destination.username, destination.password,
+                    destination.settings);
+        } catch (NoSuchMethodException e) {
+            throw new InstantiationException(
+                    ExceptionUtils.getRootCauseMessage(e));
+        } catch (InvocationTargetException e) {
+            throw new InstantiationException(
+                    ExceptionUtils.getRootCauseMessage(e));
+        } catch (IllegalAccessException e) {
+            throw new InstantiationException(
+                    ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private static void closeQuietly(ElasTestSubmitter submitter) {
+        if (submitter != null) {
+            try {
+                submitter.close();
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error closing submitter {}: {}",
+                        submitter.getDescription(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A cached submitter and the number of its users. The count is -1 once
+     * the submitter has been evicted, so that it cannot be handed out again.
+     */
+    private static final class CachedSubmitter {
+        final AbstractElasTestSubmitter submitter;
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile long idleSince = System.nanoTime();
+
+        CachedSubmitter(AbstractElasTestSubmitter submitter) {
+            this.submitter = submitter;
+        }
+
+        boolean retain() {
+            int current;
+            do {
+                current = users.get();
+                if (current < 0) {
+                    return false;
+                }
+            } while (!users.compareAndSet(current, current + 1));
             return true;
         }
 
-        boolean matches = (instance.getSubmitterType() == type)
-                && StringUtils.equals(instance.host, host)
-                && (instance.port == port)
-                && StringUtils.equals(instance.key, key)
-                && StringUtils.equals(instance.username, username)
-                && StringUtils.equals(instance.password, password);
-        return !matches;
+        void release(long now) {
+            int current;
+            do {
+                current = users.get();
+                if (current <= 0) {
+                    return;
+                }
+            } while (!users.compareAndSet(current, current - 1));
+            if (current == 1) {
+                idleSince = now;
+            }
+        }
+
+        boolean evictIfIdle(long now) {
+            return now - idleSince >= TimeUnit.MILLISECONDS
+                    .toNanos(IDLE_EVICTION_MILLIS)
+                    && users.compareAndSet(0, -1);
+        }
+    }
+
+    /**
+     * Everything that identifies the destination of a submitter.
+     */
+    private static final class Destination {
+        final SubmitterType type;
+        final String host;
+        final int port;
+        final String key;
+        final String username;
+        final String password;
+        final SubmitterSettings settings;
+        private final int hash;
+
+        Destination(SubmitterType type, String host, int port, String key,
+                String username, String password,
+                SubmitterSettings settings) {
+            this.type = type;
+            this.host = host;
+            this.port = port;
+            this.key = key;
+            this.username = username;
+            this.password = password;
+            this.settings = settings;
+            this.hash = Objects.hash(type, host, port, key, username,
+                    password, settings);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Destination)) {
+                return false;
+            }
+            Destination other = (Destination) o;
+            return type == other.type && port == other.port
+                    && Objects.equals(host, other.host)
+                    && Objects.equals(key, other.key)
+                    && Objects.equals(username, other.username)
+                    && Objects.equals(password, other.password)
+                    && Objects.equals(settings, other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 }
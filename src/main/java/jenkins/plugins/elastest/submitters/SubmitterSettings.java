@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import java.util.Objects;
+
+/**
+ * Tuning parameters shared by the submitters created by the
+ * {@link SubmitterFactory}. Two submitters with the same destination but
+ * different settings are considered different submitters.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public class SubmitterSettings {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+    public static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 30;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int connectionIdleTimeout = DEFAULT_CONNECTION_IDLE_TIMEOUT;
+    private boolean compressionEnabled;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public SubmitterSettings setMaxConnectionsPerRoute(
+            int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute > 0
+                ? maxConnectionsPerRoute
+                : DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        return this;
+    }
+
+    /**
+     * @return Seconds that a pooled connection can stay idle before it is
+     *         closed.
+     */
+    public int getConnectionIdleTimeout() {
+        return connectionIdleTimeout;
+    }
+
+    public SubmitterSettings setConnectionIdleTimeout(
+            int connectionIdleTimeout) {
+        this.connectionIdleTimeout = connectionIdleTimeout > 0
+                ? connectionIdleTimeout
+                : DEFAULT_CONNECTION_IDLE_TIMEOUT;
+        return this;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public SubmitterSettings setCompressionEnabled(
+            boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+        return this;
+    }
+
+    /**
+     * @return Minimum size in bytes of a payload to be sent gzip-compressed.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public SubmitterSettings setCompressionThreshold(
+            int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold >= 0
+                ? compressionThreshold
+                : DEFAULT_COMPRESSION_THRESHOLD;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SubmitterSettings other = (SubmitterSettings) o;
+        return maxConnectionsPerRoute == other.maxConnectionsPerRoute
+                && connectionIdleTimeout == other.connectionIdleTimeout
+                && compressionEnabled == other.compressionEnabled
+                && compressionThreshold == other.compressionThreshold;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxConnectionsPerRoute, connectionIdleTimeout,
+                compressionEnabled, compressionThreshold);
+    }
+
+    @Override
+    public String toString() {
+        return "SubmitterSettings [maxConnectionsPerRoute="
+                + maxConnectionsPerRoute + ", connectionIdleTimeout="
+                + connectionIdleTimeout + ", compressionEnabled="
+                + compressionEnabled + ", compressionThreshold="
+                + compressionThreshold + "]";
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delays between retries that grow exponentially up to a maximum. Each delay
+ * is a random value between half and all of its exponential value, so that
+ * the retries of different builds do not happen at the same time.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public final class Backoff {
+
+    private Backoff() {
+    }
+
+    /**
+     * @param attempt
+     *            number of the failed attempt, starting at 1
+     * @param baseMillis
+     *            delay after the first attempt, without jitter
+     * @param maxMillis
+     *            maximum delay
+     * @return Milliseconds to wait before the next attempt.
+     */
+    public static long delay(int attempt, long baseMillis, long maxMillis) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        long ceiling = Math.min(baseMillis << shift, maxMillis);
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+}
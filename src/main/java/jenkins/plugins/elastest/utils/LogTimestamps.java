@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wall-clock timestamps of the log lines sent to ElasTest.
+ * <p>
+ * {@link #now()} never goes backwards, even if the system clock is adjusted,
+ * so that the lines keep their order in the ElasTest log analyzer.
+ * {@link #format(long)} returns ISO-8601 UTC timestamps with millisecond
+ * precision and reuses the last formatted value for lines written in the same
+ * millisecond.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public final class LogTimestamps {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private static final AtomicLong lastMillis = new AtomicLong();
+    private static volatile Formatted lastFormatted = new Formatted(-1, "");
+
+    private LogTimestamps() {
+    }
+
+    /**
+     * @return The current time in milliseconds since the epoch, or the last
+     *         returned time if the system clock has gone backwards.
+     */
+    public static long now() {
+        long millis = System.currentTimeMillis();
+        long last = lastMillis.get();
+        while (millis > last) {
+            if (lastMillis.compareAndSet(last, millis)) {
+                return millis;
+            }
+            last = lastMillis.get();
+        }
+        return last;
+    }
+
+    /**
+     * @param millis
+     *            milliseconds since the epoch
+     * @return The time as an ISO-8601 UTC timestamp, e.g.
+     *         {@code 2019-01-10T09:30:00.125Z}
+     */
+    public static String format(long millis) {
+        Formatted formatted = lastFormatted;
+        if (formatted.millis != millis) {
+            formatted = new Formatted(millis,
+                    FORMATTER.format(Instant.ofEpochMilli(millis)));
+            lastFormatted = formatted;
+        }
+        return formatted.text;
+    }
+
+    private static final class Formatted {
+        final long millis;
+        final String text;
+
+        Formatted(long millis, String text) {
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * Append-only file of length-prefixed records that are read back in the same
+ * order they were written. The file is truncated each time all its records
+ * have been read.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.1
+ */
+public class RecordFile implements Closeable {
+    private final File file;
+    private RandomAccessFile raf;
+    private long readPosition;
+    private long writePosition;
+
+    public RecordFile(File file) {
+        this.file = file;
+    }
+
+    public synchronized void append(byte[] record) throws IOException {
+        open();
+        raf.seek(writePosition);
+        raf.writeInt(record.length);
+        raf.write(record);
+        writePosition = raf.getFilePointer();
+    }
+
+    /**
+     * @return the oldest record not read yet, or null if all the records have
+     *         been read
+     */
+    public synchronized byte[] next() throws IOException {
+        if (isEmpty()) {
+            return null;
+        }
+        raf.seek(readPosition);
+        byte[] record = new byte[raf.readInt()];
+        raf.readFully(record);
+        readPosition = raf.getFilePointer();
+        if (isEmpty()) {
+            raf.setLength(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+        return record;
+    }
+
+    public synchronized boolean isEmpty() {
+        return readPosition >= writePosition;
+    }
+
+    public synchronized long length() {
+        return writePosition - readPosition;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Closes and deletes the file. Unread records are lost.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+        readPosition = 0;
+        writePosition = 0;
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private void open() throws IOException {
+        if (raf == null) {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create directory " + parent);
+            }
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+        }
+    }
+}
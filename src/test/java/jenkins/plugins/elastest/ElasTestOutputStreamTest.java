@@ -6,7 +6,9 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.*;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.After;
 import org.junit.Before;
@@ -16,8 +18,11 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import hudson.console.ConsoleNote;
+
 import jenkins.plugins.elastest.ElasTestOutputStream;
 import jenkins.plugins.elastest.ElasTestWriter;
+import jenkins.plugins.elastest.metrics.LogMetrics;
 
 @SuppressWarnings("resource")
 @RunWith(MockitoJUnitRunner.class)
@@ -33,8 +38,12 @@ public class ElasTestOutputStreamTest {
   @Before
   public void before() throws Exception {
     buffer = new ByteArrayOutputStream();
-    Mockito.doNothing().when(mockWriter).write(anyString());
+    Mockito.doNothing().when(mockWriter).write(anyString(), anyLong(), anyLong(), anyLong(), any());
     when(mockWriter.isConnectionBroken()).thenReturn(false);
+    when(mockWriter.nextLineSequence()).thenReturn(1L, 2L, 3L);
+    final AtomicLong consoleBytes = new AtomicLong();
+    when(mockWriter.nextLineOffset(anyInt())).thenAnswer(
+        invocation -> consoleBytes.getAndAdd((Integer) invocation.getArguments()[0]));
   }
 
   @After
@@ -63,7 +72,9 @@ public class ElasTestOutputStreamTest {
     // Verify results
     assertEquals("Results don't match", msg, buffer.toString());
     verify(mockWriter).isConnectionBroken();
-    verify(mockWriter).write(msg);
+    verify(mockWriter).nextLineOffset(anyInt());
+    verify(mockWriter).write(eq(msg), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter).nextLineSequence();
   }
 
   @Test
@@ -103,8 +114,10 @@ public class ElasTestOutputStreamTest {
     }
 
     //Verify calls were made to the dao logging twice, not three times.
-    verify(mockWriter, times(2)).write(msg);
+    verify(mockWriter, times(2)).write(eq(msg), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter, times(2)).nextLineSequence();
     verify(mockWriter, times(3)).isConnectionBroken();
+    verify(mockWriter, times(3)).nextLineOffset(anyInt());
   }
 
   @Test
@@ -120,5 +133,247 @@ public class ElasTestOutputStreamTest {
     // Verify results
     assertEquals("Results don't match", msg, buffer.toString());
     verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).nextLineOffset(anyInt());
+  }
+
+  @Test
+  public void eolRemovesConsoleNotesAndTrailingWhitespace() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+    String msg = ConsoleNote.PREAMBLE_STR + "note" + ConsoleNote.POSTAMBLE_STR
+        + "  [INFO] " + ConsoleNote.PREAMBLE_STR + "other" + ConsoleNote.POSTAMBLE_STR
+        + "Building ñandú  \r\n";
+    byte[] bytes = msg.getBytes("UTF-8");
+    buffer.reset();
+
+    // Unit under test
+    los.eol(bytes, bytes.length);
+
+    // Verify results
+    assertEquals("Results don't match", msg, buffer.toString("UTF-8"));
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).nextLineOffset(anyInt());
+    // The leading whitespace is removed by the writer, after merging the continuation lines
+    verify(mockWriter).write(eq("  [INFO] Building ñandú"), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter).nextLineSequence();
+  }
+
+  @Test
+  public void toMessageKeepsUnterminatedNote() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+    String msg = "text " + ConsoleNote.PREAMBLE_STR + "unterminated";
+    byte[] bytes = msg.getBytes("UTF-8");
+
+    assertEquals(msg, los.toMessage(bytes, bytes.length));
+  }
+
+  @Test
+  public void closeEndsTheStreamOfTheWriter() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+
+    // Unit under test
+    los.close();
+
+    // Verify results
+    verify(mockWriter).endStream(los);
+  }
+
+  @Test
+  public void eolFlushesEachLineByDefault() throws Exception {
+    CountingOutputStream delegate = new CountingOutputStream();
+    ElasTestOutputStream los = new ElasTestOutputStream(delegate, mockWriter);
+
+    // Unit under test
+    los.write("one\ntwo\nthree\n".getBytes("UTF-8"));
+
+    // Verify results
+    assertEquals(3, delegate.flushes);
+    verify(mockWriter, times(3)).isConnectionBroken();
+    verify(mockWriter, times(3)).nextLineOffset(anyInt());
+    verify(mockWriter, times(3)).write(anyString(), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter, times(3)).nextLineSequence();
+  }
+
+  @Test
+  public void eolCoalescesFlushes() throws Exception {
+    CountingOutputStream delegate = new CountingOutputStream();
+    ElasTestOutputStream los = new ElasTestOutputStream(delegate, mockWriter,
+        LogMetrics.installation(), 60000);
+
+    // Unit under test
+    los.write("one\ntwo\nthree\n".getBytes("UTF-8"));
+
+    // Verify results
+    assertEquals("one\ntwo\nthree\n", delegate.toString("UTF-8"));
+    assertEquals(0, delegate.flushes);
+    los.flush();
+    assertEquals(1, delegate.flushes);
+    verify(mockWriter, times(3)).isConnectionBroken();
+    verify(mockWriter, times(3)).nextLineOffset(anyInt());
+    verify(mockWriter, times(3)).write(anyString(), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter, times(3)).nextLineSequence();
+  }
+
+  @Test
+  public void eolFlushesWhenTheBytesReachTheLimit() throws Exception {
+    CountingOutputStream delegate = new CountingOutputStream();
+    ElasTestOutputStream los = new ElasTestOutputStream(delegate, mockWriter,
+        LogMetrics.installation(), 60000);
+    StringBuilder line = new StringBuilder();
+    while (line.length() < ElasTestOutputStream.FLUSH_BYTES / 2) {
+      line.append("0123456789");
+    }
+    byte[] bytes = line.append('\n').toString().getBytes("UTF-8");
+
+    // Unit under test
+    los.write(bytes);
+    los.write(bytes);
+
+    // Verify results
+    assertEquals(1, delegate.flushes);
+    verify(mockWriter, times(2)).isConnectionBroken();
+    verify(mockWriter, times(2)).nextLineOffset(anyInt());
+    verify(mockWriter, times(2)).write(anyString(), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter, times(2)).nextLineSequence();
+  }
+
+  @Test
+  public void eolFlushesLastLinesWhenTheIntervalIsOver() throws Exception {
+    CountingOutputStream delegate = new CountingOutputStream();
+    ElasTestOutputStream los = new ElasTestOutputStream(delegate, mockWriter,
+        LogMetrics.installation(), 50);
+
+    // Unit under test
+    los.write("one\ntwo\n".getBytes("UTF-8"));
+
+    // Verify results
+    long deadline = System.currentTimeMillis() + 2000;
+    while (delegate.getFlushes() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, delegate.getFlushes());
+    verify(mockWriter, times(2)).isConnectionBroken();
+    verify(mockWriter, times(2)).nextLineOffset(anyInt());
+    verify(mockWriter, times(2)).write(anyString(), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter, times(2)).nextLineSequence();
+  }
+
+  @Test
+  public void eolSendsSequenceAndOffsetOfEachLine() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+
+    // Unit under test
+    los.write("one\ntwo\n".getBytes("UTF-8"));
+
+    // Verify results
+    verify(mockWriter, times(2)).isConnectionBroken();
+    verify(mockWriter, times(2)).nextLineOffset(anyInt());
+    verify(mockWriter, times(2)).nextLineSequence();
+    verify(mockWriter).write(eq("one"), anyLong(), eq(1L), eq(0L), same(los));
+    verify(mockWriter).write(eq("two"), anyLong(), eq(2L), eq(4L), same(los));
+  }
+
+  @Test
+  public void eolSendsOffsetInTheConsoleOfTheBuild() throws Exception {
+    ElasTestOutputStream first = new ElasTestOutputStream(buffer, mockWriter);
+    ElasTestOutputStream second = new ElasTestOutputStream(buffer, mockWriter);
+
+    // Unit under test
+    first.write("one\n".getBytes("UTF-8"));
+    second.write("two\n".getBytes("UTF-8"));
+    first.write("three\n".getBytes("UTF-8"));
+
+    // Verify results
+    verify(mockWriter, times(3)).isConnectionBroken();
+    verify(mockWriter, times(3)).nextLineOffset(anyInt());
+    verify(mockWriter, times(3)).nextLineSequence();
+    verify(mockWriter).write(eq("one"), anyLong(), eq(1L), eq(0L), same(first));
+    verify(mockWriter).write(eq("two"), anyLong(), eq(2L), eq(4L), same(second));
+    verify(mockWriter).write(eq("three"), anyLong(), eq(3L), eq(8L), same(first));
+  }
+
+  @Test
+  public void writeSplitsLongLinesIntoChunks() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+    los.setLineLimit(4, ElasTestOutputStream.LongLinePolicy.CHUNK);
+
+    // Unit under test
+    los.write("abcdefghij\nxy\n".getBytes("UTF-8"));
+
+    // Verify results
+    assertEquals("abcdefghij\nxy\n", buffer.toString("UTF-8"));
+    verify(mockWriter, times(4)).isConnectionBroken();
+    verify(mockWriter, times(4)).nextLineOffset(anyInt());
+    verify(mockWriter, times(4)).nextLineSequence();
+    verify(mockWriter).write(eq("abcd [continues]"), anyLong(), eq(1L), eq(0L), same(los));
+    verify(mockWriter).write(eq("[continued] efgh [continues]"), anyLong(), eq(2L), eq(4L), same(los));
+    verify(mockWriter).write(eq("[continued] ij"), anyLong(), eq(3L), eq(8L), same(los));
+    verify(mockWriter).write(eq("xy"), anyLong(), eq(3L), eq(11L), same(los));
+  }
+
+  @Test
+  public void writeCountsLinesWrittenInPiecesOnce() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+    los.setLineLimit(8, ElasTestOutputStream.LongLinePolicy.CHUNK);
+
+    // Unit under test
+    los.write("abc".getBytes("UTF-8"));
+    los.write("def".getBytes("UTF-8"));
+    los.write("gh\n".getBytes("UTF-8"));
+
+    // Verify results
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).nextLineOffset(anyInt());
+    verify(mockWriter).nextLineSequence();
+    verify(mockWriter).write(eq("abcdefgh"), anyLong(), eq(1L), eq(0L), same(los));
+  }
+
+  @Test
+  public void writeTruncatesLongLines() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+    los.setLineLimit(4, ElasTestOutputStream.LongLinePolicy.TRUNCATE);
+
+    // Unit under test
+    los.write("abcdefghij\nxy\n".getBytes("UTF-8"));
+
+    // Verify results
+    assertEquals("abcdefghij\nxy\n", buffer.toString("UTF-8"));
+    verify(mockWriter, times(4)).isConnectionBroken();
+    verify(mockWriter, times(4)).nextLineOffset(anyInt());
+    verify(mockWriter, times(2)).nextLineSequence();
+    verify(mockWriter).write(eq("abcd [truncated]"), anyLong(), eq(1L), eq(0L), same(los));
+    verify(mockWriter).write(eq("xy"), anyLong(), eq(2L), eq(11L), same(los));
+  }
+
+  @Test
+  public void writeSplitsLongLinesBetweenCharacters() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+    los.setLineLimit(4, ElasTestOutputStream.LongLinePolicy.CHUNK);
+    byte[] line = "abc\u00e9f\n".getBytes("UTF-8");
+
+    // Unit under test
+    for (byte b : line) {
+      los.write(b);
+    }
+    los.write(line, 0, line.length);
+
+    // Verify results
+    verify(mockWriter, times(4)).isConnectionBroken();
+    verify(mockWriter, times(4)).nextLineOffset(anyInt());
+    verify(mockWriter, times(4)).nextLineSequence();
+    verify(mockWriter, times(2)).write(eq("abc\u00e9 [continues]"), anyLong(), anyLong(), anyLong(), any());
+    verify(mockWriter, times(2)).write(eq("[continued] f"), anyLong(), anyLong(), anyLong(), any());
+  }
+
+  static class CountingOutputStream extends ByteArrayOutputStream {
+    volatile int flushes;
+
+    int getFlushes() {
+      return flushes;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      flushes++;
+    }
   }
 }
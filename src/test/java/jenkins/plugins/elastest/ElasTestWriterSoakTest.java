@@ -0,0 +1,65 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jenkins.plugins.elastest.ElasTestWriterTest.BlockingSubmitter;
+
+/**
+ * Tests of the writer that rely on the timers of the build queue, such as the
+ * idle flush of the multi-line events. They are excluded from the default
+ * build and run with the soak profile: {@code mvn test -Psoak}.
+ */
+public class ElasTestWriterSoakTest {
+    InProcessPipeline pipeline;
+    BlockingSubmitter submitter;
+
+    @After
+    public void after() throws IOException {
+        submitter.unblock.countDown();
+        pipeline.close();
+    }
+
+    @Test
+    public void idleFlushDoesNotBlockTheSendsWhenTheBufferIsFull()
+            throws Exception {
+        submitter = new BlockingSubmitter();
+        pipeline = new InProcessPipeline(submitter,
+                () -> new LogBuffer(2, Long.MAX_VALUE, 0, 4,
+                        LogBuffer.OverflowPolicy.BLOCK, null),
+                sink -> new LineAggregator(
+                        Pattern.compile(
+                                LineAggregator.DEFAULT_CONTINUATION_PATTERN),
+                        20, LineAggregator.DEFAULT_MAX_LINES, sink));
+        submitter.unblockAfter(500);
+
+        // Each event is flushed when idle, and the build waits for room
+        Thread build = new Thread(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    pipeline.getConsole().write(("event " + i + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    Thread.sleep(50);
+                }
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        build.start();
+        build.join(10000);
+
+        assertFalse("The build is blocked", build.isAlive());
+        ElasTestWriter writer = pipeline.getWriter();
+        writer.flush();
+        assertTrue(writer.drain(5000, null));
+        assertEquals(0, writer.getDroppedLines());
+    }
+}
@@ -0,0 +1,275 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jenkins.plugins.elastest.json.Trace;
+import jenkins.plugins.elastest.submitters.CircuitBreaker;
+
+public class ElasTestWriterTest {
+    InProcessPipeline pipeline;
+    BlockingSubmitter submitter;
+    ByteArrayOutputStream progress = new ByteArrayOutputStream();
+
+    @After
+    public void after() throws IOException {
+        submitter.unblock.countDown();
+        pipeline.close();
+    }
+
+    void createPipeline() throws IOException {
+        submitter = new BlockingSubmitter();
+        pipeline = new InProcessPipeline(1000, 10, submitter);
+    }
+
+    void writeLines(int lines) throws IOException {
+        for (int i = 0; i < lines; i++) {
+            pipeline.getConsole().write(
+                    ("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    String progress() {
+        return new String(progress.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void drainWaitsUntilTheLinesAreDelivered() throws Exception {
+        createPipeline();
+        writeLines(10);
+        ElasTestWriter writer = pipeline.getWriter();
+        assertEquals(10, writer.getPendingLines());
+        assertTrue(writer.getPendingBytes() > 0);
+
+        // The lines are delivered once the drain has started waiting
+        PrintStream unblocking = new PrintStream(progress, true) {
+            @Override
+            public void println(String message) {
+                super.println(message);
+                submitter.unblock.countDown();
+            }
+        };
+        assertTrue(writer.drain(60000, unblocking));
+
+        assertEquals(0, writer.getPendingLines());
+        assertEquals(0, writer.getPendingBytes());
+        assertEquals(1, pipeline.getPayloads());
+        assertTrue(progress(),
+                progress().contains("Sending 10 log lines ("));
+    }
+
+    @Test
+    public void drainGivesUpAtTheDeadline() throws Exception {
+        createPipeline();
+        writeLines(10);
+        ElasTestWriter writer = pipeline.getWriter();
+
+        assertFalse(writer.drain(1, new PrintStream(progress, true)));
+
+        assertEquals(10, writer.getPendingLines());
+        assertTrue(writer.getPendingBytes() > 0);
+    }
+
+    @Test
+    public void drainSharesTheDeadlineBetweenCalls() throws Exception {
+        createPipeline();
+        writeLines(10);
+        ElasTestWriter writer = pipeline.getWriter();
+        assertFalse(writer.drain(1, null));
+
+        // The deadline of the first call has passed, nothing is waited for
+        assertFalse(writer.drain(60000, new PrintStream(progress, true)));
+
+        assertEquals("", progress());
+    }
+
+    @Test
+    public void drainStopsWhenTheDeliveryIsSuspended() throws Exception {
+        createPipeline();
+        CircuitBreaker breaker = CircuitBreaker
+                .forDestination(submitter.getDescription());
+        for (int i = 0; i < 5; i++) {
+            breaker.recordFailure();
+        }
+        writeLines(10);
+
+        assertFalse(pipeline.getWriter().drain(60000,
+                new PrintStream(progress, true)));
+
+        assertTrue(progress(), progress()
+                .contains("Delivery of logs to ElasTest is failing"));
+    }
+
+    @Test
+    public void releaseDropsThePendingLines() throws Exception {
+        createPipeline();
+        writeLines(10);
+        ElasTestWriter writer = pipeline.getWriter();
+        writer.flush();
+        submitter.pushed.await();
+        // The first batch is being sent, the new lines wait in the buffer
+        writeLines(5);
+
+        assertEquals(0, writer.release(ElasTestWriter.LeftoverPolicy.DROP));
+
+        assertEquals(5, writer.getDroppedLines());
+    }
+
+    @Test
+    public void releaseSpoolsThePendingLines() throws Exception {
+        createPipeline();
+        writeLines(10);
+        ElasTestWriter writer = pipeline.getWriter();
+        writer.flush();
+        submitter.pushed.await();
+
+        assertEquals(10, writer.release(ElasTestWriter.LeftoverPolicy.SPOOL));
+        submitter.unblock.countDown();
+
+        while (writer.getPendingLines() > 0) {
+            Thread.yield();
+        }
+        assertEquals(0, writer.getDroppedLines());
+        assertEquals(1, pipeline.getPayloads());
+    }
+
+    @Test
+    public void mergesIndentedContinuationLinesWithTheirIndentation()
+            throws Exception {
+        StringBuffer sent = new StringBuffer();
+        submitter = new BlockingSubmitter() {
+            @Override
+            public boolean push(String data) throws IOException {
+                sent.append(data);
+                return super.push(data);
+            }
+        };
+        submitter.unblock.countDown();
+        pipeline = new InProcessPipeline(submitter,
+                () -> new LogBuffer(10, Long.MAX_VALUE, 0),
+                sink -> new LineAggregator(
+                        Pattern.compile(
+                                LineAggregator.DEFAULT_CONTINUATION_PATTERN),
+                        60000, LineAggregator.DEFAULT_MAX_LINES, sink));
+
+        pipeline.getConsole().write(("  java.lang.Exception: boom\n"
+                + "\tat Foo.bar(Foo.java:1)\n"
+                + "    ... 2 more\n" + "next\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        ElasTestWriter writer = pipeline.getWriter();
+        writer.flush();
+
+        assertTrue(writer.drain(5000, null));
+        assertTrue(sent.toString(), sent.toString()
+                .contains("\"java.lang.Exception: boom\\n"
+                        + "\\tat Foo.bar(Foo.java:1)\\n    ... 2 more\""));
+        assertTrue(sent.toString(),
+                sent.toString().contains("\"next\""));
+    }
+
+    @Test
+    public void doesNotMergeTheLinesOfInterleavedStreams() throws Exception {
+        StringBuffer sent = new StringBuffer();
+        submitter = new BlockingSubmitter() {
+            @Override
+            public boolean push(String data) throws IOException {
+                sent.append(data);
+                return super.push(data);
+            }
+        };
+        submitter.unblock.countDown();
+        pipeline = new InProcessPipeline(submitter,
+                () -> new LogBuffer(10, Long.MAX_VALUE, 0),
+                sink -> new LineAggregator(
+                        Pattern.compile(
+                                LineAggregator.DEFAULT_CONTINUATION_PATTERN),
+                        60000, LineAggregator.DEFAULT_MAX_LINES, sink));
+        OutputStream branchA = pipeline.getConsole();
+        OutputStream branchB = pipeline.newConsole();
+
+        branchA.write("java.lang.Exception: a\n"
+                .getBytes(StandardCharsets.UTF_8));
+        branchB.write("java.lang.Exception: b\n"
+                .getBytes(StandardCharsets.UTF_8));
+        branchA.write("\tat A.a(A.java:1)\n"
+                .getBytes(StandardCharsets.UTF_8));
+        branchB.write("\tat B.b(B.java:1)\n"
+                .getBytes(StandardCharsets.UTF_8));
+        branchB.close();
+        ElasTestWriter writer = pipeline.getWriter();
+        writer.flush();
+
+        assertTrue(writer.drain(5000, null));
+        assertTrue(sent.toString(), sent.toString().contains(
+                "\"java.lang.Exception: a\\n\\tat A.a(A.java:1)\""));
+        assertTrue(sent.toString(), sent.toString().contains(
+                "\"java.lang.Exception: b\\n\\tat B.b(B.java:1)\""));
+    }
+
+    @Test
+    public void dropsTheBatchWhosePayloadCannotBeBuilt() throws Exception {
+        AtomicInteger batches = new AtomicInteger();
+        submitter = new BlockingSubmitter() {
+            @Override
+            public String buildPayload(List<Trace> traces) throws IOException {
+                if (batches.incrementAndGet() == 1) {
+                    throw new IOException("boom");
+                }
+                return super.buildPayload(traces);
+            }
+        };
+        submitter.unblock.countDown();
+        pipeline = new InProcessPipeline(5, 10, submitter);
+        writeLines(10);
+        ElasTestWriter writer = pipeline.getWriter();
+        writer.flush();
+
+        assertTrue(writer.drain(5000, null));
+        assertEquals(5, writer.getDroppedLines());
+        assertEquals(1, pipeline.getPayloads());
+    }
+
+    static class BlockingSubmitter extends InProcessPipeline.StubSubmitter {
+        final CountDownLatch pushed = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+
+        void unblockAfter(long millis) {
+            Thread timer = new Thread(() -> {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                unblock.countDown();
+            });
+            timer.setDaemon(true);
+            timer.start();
+        }
+
+        @Override
+        public boolean push(String data) throws IOException {
+            pushed.countDown();
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return super.push(data);
+        }
+    }
+}
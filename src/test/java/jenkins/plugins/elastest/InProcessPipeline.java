@@ -0,0 +1,216 @@
+package jenkins.plugins.elastest;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import hudson.model.Run;
+import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.submitters.CongestionControl;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
+import jenkins.plugins.elastest.submitters.LogstashSubmitter;
+
+/**
+ * Console pipeline of a build, from the {@link ElasTestOutputStream} to the
+ * payloads built by the submitter, running in the same process without
+ * Jenkins or ElasTest. The submitter builds the real Logstash payloads and
+ * counts them instead of sending them.
+ */
+public final class InProcessPipeline implements Closeable {
+    // Long enough to never send a batch before it is full
+    private static final long LINGER_MILLIS = 60000;
+
+    private final StubSubmitter submitter;
+    private final File journalDir;
+    private final ElasTestWriter writer;
+    private final ElasTestOutputStream stream;
+
+    /**
+     * @param batchLines
+     *            lines of each payload
+     */
+    public InProcessPipeline(int batchLines) throws IOException {
+        this(batchLines, LINGER_MILLIS, new StubSubmitter());
+    }
+
+    InProcessPipeline(final int batchLines, final long lingerMillis,
+            StubSubmitter submitter) throws IOException {
+        this(submitter, () -> new LogBuffer(batchLines, Long.MAX_VALUE,
+                lingerMillis), sink -> null);
+    }
+
+    /**
+     * @param logBuffer
+     *            creates the buffer of the writer
+     * @param lineAggregator
+     *            creates the aggregator of the writer for the given sink, or
+     *            returns null to send each line as it is
+     */
+    InProcessPipeline(StubSubmitter submitter,
+            final Supplier<LogBuffer> logBuffer,
+            final Function<LineAggregator.Sink, LineAggregator> lineAggregator)
+            throws IOException {
+        this.submitter = submitter;
+        journalDir = Files.createTempDirectory("elastest-journal").toFile();
+        ExternalJob externalJob = new ExternalJob("benchmark");
+        externalJob.settJobExecId(1L);
+        Run<?, ?> run = mock(Run.class);
+        when(run.getFullDisplayName()).thenReturn("benchmark #1");
+
+        writer = new ElasTestWriter(run, null, externalJob) {
+            @Override
+            ElasTestSubmitter getSubmitter(SubmitterType type) {
+                return InProcessPipeline.this.submitter;
+            }
+
+            @Override
+            SubmitterType getSubmitterType() {
+                return SubmitterType.LOGSTASH;
+            }
+
+            @Override
+            String getJenkinsUrl() {
+                return "";
+            }
+
+            @Override
+            boolean isMonitored() {
+                return true;
+            }
+
+            @Override
+            CongestionControl getCongestionControl(
+                    ElasTestSubmitter submitter) {
+                return null;
+            }
+
+            @Override
+            LogBuffer createLogBuffer() {
+                return logBuffer.get();
+            }
+
+            @Override
+            LogJournal createLogJournal() {
+                return new LogJournal(journalDir);
+            }
+
+            @Override
+            LogDispatcher.BuildQueue createExecutor() {
+                return LogDispatcher
+                        .getInstance(LogDispatcher.DEFAULT_THREADS)
+                        .newQueue();
+            }
+
+            @Override
+            LineAggregator createLineAggregator(LineAggregator.Sink sink) {
+                return lineAggregator.apply(sink);
+            }
+
+            @Override
+            LineDeduplicator createLineDeduplicator() {
+                return null;
+            }
+        };
+        stream = new ElasTestOutputStream(new NullOutputStream(), writer,
+                writer.getMetrics());
+    }
+
+    /**
+     * @return The stream where the console lines of the build are written.
+     */
+    public OutputStream getConsole() {
+        return stream;
+    }
+
+    /**
+     * @return A new console stream of the same build, such as the one of a
+     *         parallel branch.
+     */
+    OutputStream newConsole() {
+        return new ElasTestOutputStream(new NullOutputStream(), writer,
+                writer.getMetrics());
+    }
+
+        ElasTestWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return The number of payloads delivered to the submitter.
+     */
+    public long getPayloads() {
+        return submitter.payloads.get();
+    }
+
+    /**
+     * @return The number of characters of the payloads delivered.
+     */
+    public long getPayloadChars() {
+        return submitter.chars.get();
+    }
+
+    /**
+     * Waits without sleeping until the given number of payloads have been
+     * delivered.
+     */
+    public void awaitPayloads(long payloads) {
+        while (submitter.payloads.get() < payloads) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+        writer.close();
+        File[] segments = journalDir.listFiles();
+        if (segments != null) {
+            for (File segment : segments) {
+                Files.deleteIfExists(segment.toPath());
+            }
+        }
+        Files.deleteIfExists(journalDir.toPath());
+    }
+
+    /**
+     * Submitter that builds the payloads of a destination of its own and
+     * counts them instead of sending them. Each submitter has a different
+     * host, so the destinations never share a circuit breaker.
+     */
+    static class StubSubmitter extends LogstashSubmitter {
+        private static final AtomicLong HOSTS = new AtomicLong();
+
+        final AtomicLong payloads = new AtomicLong();
+        final AtomicLong chars = new AtomicLong();
+
+        StubSubmitter() {
+            super("stub-" + HOSTS.incrementAndGet(), 9200, "stub", "", "");
+        }
+
+        @Override
+        public boolean push(String data) throws IOException {
+            chars.addAndGet(data.length());
+            payloads.incrementAndGet();
+            return true;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineAggregatorTest {
+
+    private List<String> events;
+    private List<Long> timestamps;
+    private List<Long> sequences;
+    private List<Long> offsets;
+    private LineAggregator aggregator;
+
+    @Before
+    public void setup() {
+        events = new ArrayList<>();
+        timestamps = new ArrayList<>();
+        sequences = new ArrayList<>();
+        offsets = new ArrayList<>();
+        aggregator = aggregator(LineAggregator.DEFAULT_MAX_LINES);
+    }
+
+    private LineAggregator aggregator(int maxLines) {
+        return new LineAggregator(
+                Pattern.compile(LineAggregator.DEFAULT_CONTINUATION_PATTERN),
+                500, maxLines, (event, timestamp, sequence, offset) -> {
+                    events.add(event);
+                    timestamps.add(timestamp);
+                    sequences.add(sequence);
+                    offsets.add(offset);
+                });
+    }
+
+    // Numbers each line after its timestamp
+    private boolean add(String line, long timestamp) {
+        return aggregator.add(line, timestamp, timestamp, timestamp * 100);
+    }
+
+    @Test
+    public void mergesStackTrace() {
+        add("[INFO] Running FooTest", 1);
+        add("java.lang.IllegalStateException: boom", 2);
+        add("\tat foo.Foo.bar(Foo.java:10)", 3);
+        add("\tat foo.Foo.main(Foo.java:5)", 4);
+        add("Caused by: java.io.IOException: closed", 5);
+        add("\t... 2 more", 6);
+        add("[INFO] Tests run: 1", 7);
+        aggregator.flush();
+
+        assertEquals(3, events.size());
+        assertEquals("[INFO] Running FooTest", events.get(0));
+        assertEquals("java.lang.IllegalStateException: boom\n"
+                + "\tat foo.Foo.bar(Foo.java:10)\n"
+                + "\tat foo.Foo.main(Foo.java:5)\n"
+                + "Caused by: java.io.IOException: closed\n"
+                + "\t... 2 more", events.get(1));
+        assertEquals("[INFO] Tests run: 1", events.get(2));
+        assertEquals(Long.valueOf(2), timestamps.get(1));
+    }
+
+    @Test
+    public void continuationWithoutEventStartsNewEvent() {
+        add("  indented", 1);
+        aggregator.flush();
+
+        assertEquals(1, events.size());
+        assertEquals("  indented", events.get(0));
+    }
+
+    @Test
+    public void splitsEventsOverMaxLines() {
+        aggregator = aggregator(2);
+        add("Exception", 1);
+        add("\tat a", 2);
+        add("\tat b", 3);
+        aggregator.flush();
+
+        assertEquals(2, events.size());
+        assertEquals("Exception\n\tat a", events.get(0));
+        assertEquals("\tat b", events.get(1));
+    }
+
+    @Test
+    public void flushesIdleEventAfterTimeout() {
+        assertTrue(add("Exception", 1000));
+        assertFalse(add("\tat a", 1200));
+
+        assertEquals(300, aggregator.flushIfIdle(1400));
+        assertTrue(events.isEmpty());
+
+        assertEquals(0, aggregator.flushIfIdle(1700));
+        assertEquals(1, events.size());
+        assertEquals("Exception\n\tat a", events.get(0));
+    }
+
+    @Test
+    public void requestsOneTimerAtATime() {
+        assertTrue(add("first", 1000));
+        assertFalse(add("second", 1100));
+
+        assertEquals(400, aggregator.flushIfIdle(1200));
+        assertEquals(0, aggregator.flushIfIdle(1600));
+        assertEquals(0, aggregator.flushIfIdle(1600));
+
+        assertTrue(add("third", 2000));
+    }
+
+    @Test
+    public void eventKeepsSequenceAndOffsetOfFirstLine() {
+        add("Exception", 1);
+        add("\tat a", 2);
+        add("next", 3);
+        aggregator.flush();
+
+        assertEquals(2, events.size());
+        assertEquals(Long.valueOf(1), sequences.get(0));
+        assertEquals(Long.valueOf(100), offsets.get(0));
+        assertEquals(Long.valueOf(3), sequences.get(1));
+        assertEquals(Long.valueOf(300), offsets.get(1));
+    }
+}
@@ -0,0 +1,85 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineDeduplicatorTest {
+
+    private List<String> runs;
+    private LineDeduplicator deduplicator;
+
+    @Before
+    public void setup() {
+        runs = new ArrayList<>();
+        deduplicator = new LineDeduplicator(1000, (repeatOf, firstTimestamp,
+                lastTimestamp, repeats, sequence, offset) -> runs
+                        .add("line " + repeatOf + " x" + repeats + " " + firstTimestamp
+                                + "-" + lastTimestamp + " #" + sequence + "@"
+                                + offset));
+    }
+
+    @Test
+    public void collapsesIdenticalConsecutiveLines() {
+        assertFalse(deduplicator.add("Waiting", 1, 1, 0));
+        assertTrue(deduplicator.add("Waiting", 2, 2, 8));
+        assertTrue(deduplicator.add("Waiting", 3, 3, 16));
+        assertTrue(runs.isEmpty());
+
+        assertFalse(deduplicator.add("Done", 4, 4, 24));
+
+        assertEquals(1, runs.size());
+        assertEquals("line 1 x2 2-3 #2@8", runs.get(0));
+    }
+
+    @Test
+    public void sendsNothingForLinesThatDoNotRepeat() {
+        assertFalse(deduplicator.add("one", 1, 1, 0));
+        assertFalse(deduplicator.add("two", 2, 2, 4));
+        assertFalse(deduplicator.add("one", 3, 3, 8));
+        deduplicator.flush();
+
+        assertTrue(runs.isEmpty());
+    }
+
+    @Test
+    public void flushSendsTheRepeatsAndStartsCountingAgain() {
+        deduplicator.add("Waiting", 1, 1, 0);
+        deduplicator.add("Waiting", 2, 2, 8);
+        deduplicator.flush();
+        assertTrue(deduplicator.add("Waiting", 3, 3, 16));
+        deduplicator.flush();
+
+        assertEquals(2, runs.size());
+        assertEquals("line 1 x1 2-2 #2@8", runs.get(0));
+        assertEquals("line 1 x1 3-3 #3@16", runs.get(1));
+    }
+
+    @Test
+    public void sendsTheRepeatsOfALongRunEveryReportInterval() {
+        deduplicator.add("Waiting", 0, 1, 0);
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(deduplicator.add("Waiting", i * 250, i + 1, i * 8));
+        }
+
+        // Sent when the repeats have lasted 1000 ms, at 1250 and 2500
+        assertEquals(2, runs.size());
+        assertEquals("line 1 x5 250-1250 #2@8", runs.get(0));
+        assertEquals("line 1 x5 1500-2500 #7@48", runs.get(1));
+    }
+
+    @Test
+    public void linesOfTheSameLengthHashDifferently() {
+        assertNotEquals(LineDeduplicator.hash("ab"),
+                LineDeduplicator.hash("ba"));
+        assertFalse(deduplicator.add("ab", 1, 1, 0));
+        assertFalse(deduplicator.add("ba", 2, 2, 3));
+    }
+}
@@ -0,0 +1,430 @@
+package jenkins.plugins.elastest;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+import hudson.model.Run;
+import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.json.JsonCodec;
+import jenkins.plugins.elastest.metrics.Histogram;
+import jenkins.plugins.elastest.submitters.CongestionControl;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
+import jenkins.plugins.elastest.submitters.SubmitterFactory;
+import jenkins.plugins.elastest.submitters.SubmitterSettings;
+
+/**
+ * Simulates builds that write their console through
+ * {@link ConsoleLogFilterImpl} while a {@link StubElasTestServer} plays
+ * ElasTest. Each build registers its TJob execution, writes lines at the
+ * given rate, waits for them to be delivered and finishes the execution, as
+ * a build with the plugin does. The {@link Report} gives the end-to-end
+ * throughput, the lag of the lines and the heap used.
+ * <p>
+ * Besides the tests, it can run as a soak test:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=jenkins.plugins.elastest.LoadDriver \
+ *     -Dexec.args="&lt;builds&gt; &lt;seconds&gt; &lt;lines per second of each build&gt;"
+ * </pre>
+ */
+public final class LoadDriver {
+    private static final long DRAIN_TIMEOUT_MILLIS = 60 * 1000;
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+    private static final String TEXT = "[INFO] Running io.elastest.demo.WebAppTest "
+            + "- Tests run: 12, Failures: 0, Errors: 0, Skipped: 1 ";
+
+    private final StubElasTestServer server;
+    private final int builds;
+    private final int linesPerSecond;
+    private final int lineLength;
+    private SubmitterType submitterType = SubmitterType.LOGSTASH;
+    private boolean adaptiveBatchSize;
+
+    /**
+     * @param linesPerSecond
+     *            lines written by each build per second, 0 to write them as
+     *            fast as possible
+     * @param lineLength
+     *            characters of each line
+     */
+    public LoadDriver(StubElasTestServer server, int builds,
+            int linesPerSecond, int lineLength) {
+        this.server = server;
+        this.builds = builds;
+        this.linesPerSecond = linesPerSecond;
+        this.lineLength = lineLength;
+    }
+
+    public void setSubmitterType(SubmitterType submitterType) {
+        this.submitterType = submitterType;
+    }
+
+    /**
+     * Adapts the batch size and the requests at once to the server, which is
+     * not done by default.
+     */
+    public void setAdaptiveBatchSize(boolean adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    /**
+     * Runs the builds at the same time, each one writing lines for the given
+     * time once its TJob execution is ready, and waits for their lines to be
+     * delivered.
+     */
+    public Report run(long durationMillis) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        LongAccumulator maxHeap = new LongAccumulator(Math::max, 0);
+        ScheduledExecutorService sampler = Executors
+                .newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(
+                () -> maxHeap.accumulate(
+                        memory.getHeapMemoryUsage().getUsed()),
+                0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        ExecutorService pool = Executors.newFixedThreadPool(builds);
+        long linesBefore = server.getLines();
+        long failedBefore = server.getFailedRequests();
+        long start = System.nanoTime();
+        try {
+            List<Future<SimulatedBuild>> running = new ArrayList<>();
+            for (int i = 1; i <= builds; i++) {
+                final int number = i;
+                running.add(pool.submit(() -> runBuild(number, durationMillis)));
+            }
+            Report report = new Report();
+            for (Future<SimulatedBuild> build : running) {
+                SimulatedBuild finished = build.get();
+                report.writtenLines += finished.written;
+                report.droppedLines += finished.dropped;
+            }
+            report.elapsedMillis = TimeUnit.NANOSECONDS
+                    .toMillis(System.nanoTime() - start);
+            report.deliveredLines = server.getLines() - linesBefore;
+            report.failedRequests = server.getFailedRequests() - failedBefore;
+            report.lagMillis = server.getLagMillis();
+            report.maxHeapBytes = maxHeap.get();
+            return report;
+        } finally {
+            pool.shutdownNow();
+            sampler.shutdownNow();
+        }
+    }
+
+    private SimulatedBuild runBuild(int number, long durationMillis)
+            throws Exception {
+        ExternalJob job = startTJob("load-" + number);
+        SimulatedBuild build = new SimulatedBuild(job, number);
+        try {
+            OutputStream console = new ConsoleLogFilterImpl(build.run,
+                    build.writer).decorateLogger(null, new NullOutputStream());
+            long start = System.nanoTime();
+            long deadline = start
+                    + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            while (System.nanoTime() < deadline) {
+                if (linesPerSecond > 0) {
+                    long due = start + build.written
+                            * TimeUnit.SECONDS.toNanos(1) / linesPerSecond;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(Math.min(wait,
+                                deadline - System.nanoTime()));
+                        continue;
+                    }
+                }
+                console.write(line(build.written));
+                build.written++;
+            }
+            build.writer.flush();
+            long drainDeadline = System.currentTimeMillis()
+                    + DRAIN_TIMEOUT_MILLIS;
+            while (server.getLines(job.gettJobExecId()) < build.written
+                    && System.currentTimeMillis() < drainDeadline) {
+                Thread.sleep(10);
+            }
+            finishTJob(job);
+        } finally {
+            build.close();
+        }
+        return build;
+    }
+
+    private byte[] line(long number) {
+        StringBuilder line = new StringBuilder(lineLength + 1);
+        line.append(number).append(' ');
+        while (line.length() < lineLength) {
+            line.append(TEXT);
+        }
+        line.setLength(lineLength);
+        return line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ExternalJob startTJob(String jobName) throws IOException {
+        ExternalJob job = JsonCodec.readExternalJob(call("POST",
+                StubElasTestServer.TJOB_PATH,
+                new ExternalJob(jobName).toJSON()));
+        return JsonCodec.readExternalJob(call("GET",
+                StubElasTestServer.TJOB_PATH + "/" + job.gettJobExecId(),
+                null));
+    }
+
+    private void finishTJob(ExternalJob job) throws IOException {
+        job.setResult(0);
+        call("PUT", StubElasTestServer.TJOB_PATH, job.toJSON());
+    }
+
+    private String call(String method, String path, String body)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                server.getUrl() + path).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type",
+                        "application/json");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            if (connection.getResponseCode() != 200) {
+                throw new IOException(method + " " + path + " failed with HTTP "
+                        + connection.getResponseCode());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    response.write(buffer, 0, read);
+                }
+                return new String(response.toByteArray(),
+                        StandardCharsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * A build whose writer sends its lines to the TJob execution of the stub
+     * server, with the default batches of the plugin and without Jenkins.
+     */
+    private final class SimulatedBuild {
+        final Run<?, ?> run = mock(Run.class);
+        final File journalDir;
+        final ElasTestWriter writer;
+        long written;
+        long dropped;
+
+        SimulatedBuild(final ExternalJob job, int number) throws IOException {
+            when(run.getFullDisplayName()).thenReturn("load #" + number);
+            journalDir = Files.createTempDirectory("elastest-journal")
+                    .toFile();
+            final File journal = journalDir;
+            writer = new ElasTestWriter(run, null, job) {
+                @Override
+                ElasTestSubmitter getSubmitter(SubmitterType type)
+                        throws InstantiationException {
+                    return SubmitterFactory.getInstance(type,
+                            job.getServicesIp(),
+                            Integer.valueOf(job.getLogstashPort()),
+                            SubmitterType.LOGSTASH.toString(), "", "",
+                            new SubmitterSettings());
+                }
+
+                @Override
+                SubmitterType getSubmitterType() {
+                    return submitterType;
+                }
+
+                @Override
+                String getJenkinsUrl() {
+                    return "";
+                }
+
+                @Override
+                boolean isMonitored() {
+                    return true;
+                }
+
+                @Override
+                int getConsoleFlushIntervalMillis() {
+                    return 0;
+                }
+
+                @Override
+                int getMaxLineBytes() {
+                    return ElasTestOutputStream.DEFAULT_MAX_LINE_BYTES;
+                }
+
+                @Override
+                ElasTestOutputStream.LongLinePolicy getLongLinePolicy() {
+                    return ElasTestOutputStream.LongLinePolicy.CHUNK;
+                }
+
+                @Override
+                CongestionControl getCongestionControl(
+                        ElasTestSubmitter submitter) {
+                    return adaptiveBatchSize ? CongestionControl
+                            .forDestination(submitter.getDescription())
+                            : null;
+                }
+
+                @Override
+                LogBuffer createLogBuffer() {
+                    return new LogBuffer(LogBuffer.DEFAULT_MAX_LINES,
+                            LogBuffer.DEFAULT_MAX_BYTES,
+                            LogBuffer.DEFAULT_LINGER_MILLIS);
+                }
+
+                @Override
+                LogJournal createLogJournal() {
+                    return new LogJournal(journal);
+                }
+
+                @Override
+                LogDispatcher.BuildQueue createExecutor() {
+                    return LogDispatcher
+                            .getInstance(LogDispatcher.DEFAULT_THREADS)
+                            .newQueue();
+                }
+
+                @Override
+                LineAggregator createLineAggregator(LineAggregator.Sink sink) {
+                    return null;
+                }
+
+                @Override
+                LineDeduplicator createLineDeduplicator() {
+                    return null;
+                }
+            };
+        }
+
+        void close() throws IOException {
+            dropped = writer.getDroppedLines();
+            writer.close();
+            File[] segments = journalDir.listFiles();
+            if (segments != null) {
+                for (File segment : segments) {
+                    Files.deleteIfExists(segment.toPath());
+                }
+            }
+            Files.deleteIfExists(journalDir.toPath());
+        }
+    }
+
+    /**
+     * Outcome of a run of the driver.
+     */
+    public static final class Report {
+        long writtenLines;
+        long deliveredLines;
+        long droppedLines;
+        long failedRequests;
+        long elapsedMillis;
+        long maxHeapBytes;
+        Histogram lagMillis;
+
+        public long getWrittenLines() {
+            return writtenLines;
+        }
+
+        /**
+         * @return Lines received by the server, counting twice the payloads
+         *         sent again after a request timed out.
+         */
+        public long getDeliveredLines() {
+            return deliveredLines;
+        }
+
+        public long getDroppedLines() {
+            return droppedLines;
+        }
+
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        /**
+         * @return Lines delivered per second, from the start of the builds
+         *         until their lines have been delivered.
+         */
+        public double getThroughput() {
+            return elapsedMillis > 0 ? deliveredLines * 1000.0 / elapsedMillis
+                    : 0;
+        }
+
+        /**
+         * @return Milliseconds from the time each line was written to its
+         *         arrival to the server.
+         */
+        public Histogram getLagMillis() {
+            return lagMillis;
+        }
+
+        public long getMaxHeapBytes() {
+            return maxHeapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d lines written, %d delivered, %d dropped in %d ms "
+                            + "(%.0f lines/s), %d failed requests, "
+                            + "lag p50 %d ms, p99 %d ms, max %d ms, "
+                            + "max heap %d MB",
+                    writtenLines, deliveredLines, droppedLines,
+                    elapsedMillis, getThroughput(), failedRequests,
+                    lagMillis.getPercentile(0.5),
+                    lagMillis.getPercentile(0.99), lagMillis.getMax(),
+                    maxHeapBytes / (1024 * 1024));
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int builds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 60;
+        int linesPerSecond = args.length > 2 ? Integer.parseInt(args[2])
+                : 1000;
+        try (StubElasTestServer server = new StubElasTestServer(8)) {
+            Report report = new LoadDriver(server, builds, linesPerSecond,
+                    120).run(TimeUnit.SECONDS.toMillis(seconds));
+            System.out.println(report);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,83 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jenkins.plugins.elastest.submitters.CongestionControl;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
+
+/**
+ * Load tests whose results depend on the time and the load of the machine.
+ * They are excluded from the default build and run with the soak profile:
+ * {@code mvn test -Psoak}.
+ */
+public class LoadDriverSoakTest {
+    StubElasTestServer server;
+
+    @Before
+    public void before() throws Exception {
+        server = new StubElasTestServer(4);
+    }
+
+    @After
+    public void after() {
+        server.close();
+    }
+
+    @Test
+    public void retriesTheRequestsThatFail() throws Exception {
+        server.setErrorRate(1);
+        ScheduledExecutorService recovery = Executors
+                .newSingleThreadScheduledExecutor();
+        recovery.schedule(() -> server.setErrorRate(0), 2,
+                TimeUnit.SECONDS);
+        LoadDriver driver = new LoadDriver(server, 2, 1000, 100);
+        driver.setSubmitterType(SubmitterType.LOGSTASH_ASYNC);
+
+        LoadDriver.Report report = driver.run(1000);
+        recovery.shutdown();
+
+        assertTrue(report.getFailedRequests() > 0);
+        assertEquals(report.getWrittenLines(), report.getDeliveredLines());
+    }
+
+    @Test
+    public void capsTheBytesPerSecond() throws Exception {
+        server.setLatencyMillis(5);
+        // A payload of 500 lines takes about 1.5 s
+        server.setMaxBytesPerSecond(64 * 1024);
+
+        LoadDriver.Report report = new LoadDriver(server, 1, 500, 100)
+                .run(1000);
+
+        assertEquals(report.getWrittenLines(), report.getDeliveredLines());
+        assertTrue(report.getLagMillis().getMax() >= 1500);
+    }
+
+    @Test
+    public void adaptsTheBatchSizeToTheServer() throws Exception {
+        LoadDriver driver = new LoadDriver(server, 2, 2000, 100);
+        driver.setAdaptiveBatchSize(true);
+
+        LoadDriver.Report report = driver.run(1000);
+
+        assertEquals(report.getWrittenLines(), report.getDeliveredLines());
+        Map<String, Integer> batchLines = CongestionControl
+                .getBatchLinesByDestination();
+        String destination = batchLines.keySet().stream()
+                .filter(key -> key.endsWith(":" + server.getPort()))
+                .findFirst().orElse(null);
+        // The batches start with 100 lines, and the server is fast enough
+        assertTrue(batchLines.toString(), destination != null
+                && batchLines.get(destination) > 100);
+    }
+}
@@ -0,0 +1,40 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadDriverTest {
+    StubElasTestServer server;
+
+    @Before
+    public void before() throws Exception {
+        server = new StubElasTestServer(4);
+    }
+
+    @After
+    public void after() {
+        server.close();
+    }
+
+    @Test
+    public void deliversAllTheLinesOfConcurrentBuilds() throws Exception {
+        LoadDriver.Report report = new LoadDriver(server, 3, 500, 100)
+                .run(500);
+
+        assertTrue(report.getWrittenLines() > 0);
+        assertEquals(report.getWrittenLines(), report.getDeliveredLines());
+        assertEquals(0, report.getDroppedLines());
+        assertEquals(report.getDeliveredLines(),
+                report.getLagMillis().getCount());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getMaxHeapBytes() > 0);
+        for (long id = 1; id <= 3; id++) {
+            assertEquals(0, server.getTJob(id).getResult());
+            assertTrue(server.getLines(id) > 0);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jenkins.plugins.elastest.LogBuffer.OverflowPolicy;
+import jenkins.plugins.elastest.json.Trace;
+
+public class LogBufferTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static Trace trace(String message) {
+        return new Trace(Trace.DEFAULT_COMPONENT, "1", Trace.DEFAULT_STREAM,
+                message, "2019-01-10T09:30:00.125Z");
+    }
+
+    static List<String> messages(List<Trace> traces) {
+        List<String> messages = new ArrayList<>(traces.size());
+        for (Trace trace : traces) {
+            messages.add(trace.getMessage());
+        }
+        return messages;
+    }
+
+    @Test
+    public void batchNotReadyBeforeLimits() {
+        LogBuffer buffer = new LogBuffer(3, 1024, 60000);
+        assertEquals(1, buffer.add(trace("line 1")));
+        assertEquals(2, buffer.add(trace("line 2")));
+
+        assertFalse("Batch should not be full", buffer.hasFullBatch());
+        assertTrue("Batch should not be ready",
+                buffer.nextBatch(false).isEmpty());
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void batchLinesLowerTheLimit() {
+        LogBuffer buffer = new LogBuffer(3, 1024, 60000);
+        buffer.setBatchLines(2);
+        buffer.add(trace("line 1"));
+        buffer.add(trace("line 2"));
+        buffer.add(trace("line 3"));
+
+        assertTrue("Batch should be full", buffer.hasFullBatch());
+        assertEquals(Arrays.asList("line 1", "line 2"),
+                messages(buffer.nextBatch(false)));
+
+        // Never above the maximum of the buffer
+        buffer.setBatchLines(10);
+        buffer.add(trace("line 4"));
+        buffer.add(trace("line 5"));
+        assertEquals(Arrays.asList("line 3", "line 4", "line 5"),
+                messages(buffer.nextBatch(false)));
+    }
+
+    @Test
+    public void batchReadyByLines() {
+        LogBuffer buffer = new LogBuffer(2, 1024, 60000);
+        buffer.add(trace("line 1"));
+        buffer.add(trace("line 2"));
+        buffer.add(trace("line 3"));
+
+        assertTrue("Batch should be full", buffer.hasFullBatch());
+        assertEquals(Arrays.asList("line 1", "line 2"),
+                messages(buffer.nextBatch(false)));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void batchReadyByBytes() {
+        LogBuffer buffer = new LogBuffer(100, 10, 60000);
+        buffer.add(trace("123456"));
+        buffer.add(trace("123456"));
+
+        assertTrue("Batch should be full", buffer.hasFullBatch());
+        List<String> batch = messages(buffer.nextBatch(false));
+        assertEquals(Arrays.asList("123456"), batch);
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void bytesAreMeasuredInUtf8() {
+        LogBuffer buffer = new LogBuffer(100, 10, 60000);
+        buffer.add(trace("\u00e1\u00e9\u00ed"));
+
+        assertEquals(6, buffer.getBytes());
+        assertFalse("Batch should not be full", buffer.hasFullBatch());
+        buffer.add(trace("\u20ac\u20ac"));
+
+        assertEquals(12, buffer.getBytes());
+        assertTrue("Batch should be full", buffer.hasFullBatch());
+    }
+
+    @Test
+    public void oversizedLineIsSentAlone() {
+        LogBuffer buffer = new LogBuffer(100, 4, 60000);
+        buffer.add(trace("123456789"));
+
+        assertEquals(Arrays.asList("123456789"),
+                messages(buffer.nextBatch(false)));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void batchReadyByLinger() throws Exception {
+        LogBuffer buffer = new LogBuffer(100, 1024, 10);
+        buffer.add(trace("line 1"));
+        Thread.sleep(50);
+
+        assertEquals(Arrays.asList("line 1"),
+                messages(buffer.nextBatch(false)));
+    }
+
+    @Test
+    public void forcedBatch() {
+        LogBuffer buffer = new LogBuffer(100, 1024, 60000);
+        buffer.add(trace("line 1"));
+
+        assertEquals(Arrays.asList("line 1"),
+                messages(buffer.nextBatch(true)));
+        assertTrue("Buffer should be empty", buffer.nextBatch(true).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimits() {
+        new LogBuffer(0, 1024, 1000);
+    }
+
+    @Test
+    public void dropOldestWhenFull() {
+        LogBuffer buffer = new LogBuffer(2, 1024, 60000, 2,
+                OverflowPolicy.DROP_OLDEST, null);
+        buffer.add(trace("line 1"));
+        buffer.add(trace("line 2"));
+        buffer.add(trace("line 3"));
+
+        assertEquals(1, buffer.getDroppedLines());
+        assertEquals(6, buffer.getDroppedBytes());
+        assertEquals(Arrays.asList("line 2", "line 3"),
+                messages(buffer.nextBatch(true)));
+    }
+
+    @Test
+    public void dropNewestWhenFull() {
+        LogBuffer buffer = new LogBuffer(2, 1024, 60000, 2,
+                OverflowPolicy.DROP_NEWEST, null);
+        buffer.add(trace("line 1"));
+        buffer.add(trace("line 2"));
+        buffer.add(trace("line 3"));
+
+        assertEquals(1, buffer.getDroppedLines());
+        assertEquals(Arrays.asList("line 1", "line 2"),
+                messages(buffer.nextBatch(true)));
+    }
+
+    @Test
+    public void spillToDiskKeepsOrder() throws Exception {
+        File spillFile = new File(folder.getRoot(), "spill.log");
+        LogBuffer buffer = new LogBuffer(2, 1024, 60000, 2,
+                OverflowPolicy.SPILL_TO_DISK, spillFile);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(trace("line " + i));
+        }
+
+        assertEquals(5, buffer.size());
+        assertTrue("Spilled lines should be ready", buffer.hasFullBatch());
+        List<String> lines = new ArrayList<>();
+        List<String> batch;
+        while (!(batch = messages(buffer.nextBatch(true))).isEmpty()) {
+            lines.addAll(batch);
+        }
+
+        assertEquals(Arrays.asList("line 1", "line 2", "line 3", "line 4",
+                "line 5"), lines);
+        assertEquals(0, buffer.getDroppedLines());
+        buffer.close();
+        assertFalse("Spill file should be deleted", spillFile.exists());
+    }
+
+    @Test
+    public void spilledTracesKeepTheirFields() throws Exception {
+        LogBuffer buffer = new LogBuffer(1, 1024, 60000, 1,
+                OverflowPolicy.SPILL_TO_DISK,
+                new File(folder.getRoot(), "spill.log"));
+        buffer.add(trace("line 1"));
+        Trace spilled = new Trace(Trace.DEFAULT_COMPONENT, "7",
+                Trace.DEFAULT_STREAM, "line 2", "2019-01-10T09:30:01.000Z");
+        buffer.add(spilled);
+
+        buffer.nextBatch(true);
+        Trace trace = buffer.nextBatch(true).get(0);
+
+        assertEquals(spilled.toString(), trace.toString());
+    }
+
+    @Test
+    public void blockUntilThereIsRoom() throws Exception {
+        final LogBuffer buffer = new LogBuffer(1, 1024, 60000, 1,
+                OverflowPolicy.BLOCK, null);
+        buffer.add(trace("line 1"));
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            buffer.add(trace("line 2"));
+            added.countDown();
+        });
+        producer.start();
+
+        assertFalse("Producer should be blocked",
+                added.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("line 1"),
+                messages(buffer.nextBatch(true)));
+        assertTrue("Producer should be released",
+                added.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("line 2"),
+                messages(buffer.nextBatch(true)));
+        assertEquals(0, buffer.getDroppedLines());
+    }
+
+    @Test
+    public void offeredLinesAreCappedWhenFull() {
+        LogBuffer buffer = new LogBuffer(2, 1024, 60000, 2,
+                OverflowPolicy.BLOCK, null);
+        for (int i = 1; i <= 5; i++) {
+            buffer.offer(trace("line " + i));
+        }
+
+        assertEquals(4, buffer.size());
+        assertEquals(1, buffer.getDroppedLines());
+        assertEquals(6, buffer.getDroppedBytes());
+        assertEquals(Arrays.asList("line 1", "line 2"),
+                messages(buffer.nextBatch(true)));
+        assertEquals(Arrays.asList("line 3", "line 4"),
+                messages(buffer.nextBatch(true)));
+    }
+
+    @Test
+    public void closeDropsPendingLines() {
+        LogBuffer buffer = new LogBuffer(10, 1024, 60000);
+        buffer.add(trace("line 1"));
+        buffer.add(trace("line 2"));
+        buffer.close();
+        buffer.add(trace("line 3"));
+
+        assertEquals(3, buffer.getDroppedLines());
+        assertEquals(18, buffer.getDroppedBytes());
+        assertTrue("Buffer should be empty", buffer.nextBatch(true).isEmpty());
+    }
+}
@@ -0,0 +1,130 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import jenkins.plugins.elastest.LogDispatcher.BuildQueue;
+
+public class LogDispatcherTest {
+
+    @Test
+    public void tasksOfABuildRunInOrder() throws Exception {
+        LogDispatcher dispatcher = new LogDispatcher(4);
+        BuildQueue queue = dispatcher.newQueue();
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final int task = i;
+            expected.add(task);
+            queue.execute(() -> done.add(task));
+        }
+        queue.shutdown();
+
+        assertTrue("Queue should terminate",
+                queue.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(expected, done);
+    }
+
+    @Test
+    public void buildsAreServedInTurns() throws Exception {
+        LogDispatcher dispatcher = new LogDispatcher(1);
+        BuildQueue first = dispatcher.newQueue();
+        BuildQueue second = dispatcher.newQueue();
+        List<String> done = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        // Keeps the only worker busy until both builds have queued tasks
+        first.execute(() -> await(blocked));
+        for (int i = 1; i <= 2; i++) {
+            final int task = i;
+            first.execute(() -> done.add("first " + task));
+            second.execute(() -> done.add("second " + task));
+        }
+        blocked.countDown();
+        first.shutdown();
+        second.shutdown();
+
+        assertTrue(first.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(second.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("second 1", "first 1", "second 2",
+                "first 2"), done);
+    }
+
+    @Test
+    public void scheduledTaskRunsInItsQueue() throws Exception {
+        LogDispatcher dispatcher = new LogDispatcher(1);
+        BuildQueue queue = dispatcher.newQueue();
+        CountDownLatch done = new CountDownLatch(1);
+
+        queue.schedule(done::countDown, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shutdownQueueRejectsTasks() {
+        BuildQueue queue = new LogDispatcher(1).newQueue();
+        queue.shutdown();
+
+        queue.execute(() -> {
+        });
+    }
+
+    @Test
+    public void awaitTerminationTimesOut() throws Exception {
+        BuildQueue queue = new LogDispatcher(1).newQueue();
+        CountDownLatch blocked = new CountDownLatch(1);
+        queue.execute(() -> await(blocked));
+        queue.shutdown();
+
+        assertFalse(queue.awaitTermination(50, TimeUnit.MILLISECONDS));
+        blocked.countDown();
+        assertTrue(queue.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void continuationRunsAfterShutdown() throws Exception {
+        BuildQueue queue = new LogDispatcher(1).newQueue();
+        CompletableFuture<String> response = new CompletableFuture<>();
+        List<String> done = Collections.synchronizedList(new ArrayList<>());
+        queue.execute(() -> queue.continueWhen(response,
+                (result, error) -> queue.continueAfter(10,
+                        TimeUnit.MILLISECONDS, () -> done.add(result))));
+        queue.shutdown();
+
+        assertFalse("Queue should wait for the continuation",
+                queue.awaitTermination(50, TimeUnit.MILLISECONDS));
+        response.complete("delivered");
+        assertTrue(queue.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("delivered"), done);
+    }
+
+    @Test
+    public void resizePool() {
+        LogDispatcher dispatcher = new LogDispatcher(2);
+        dispatcher.setThreads(6);
+        assertEquals(6, dispatcher.getThreads());
+        dispatcher.setThreads(1);
+        assertEquals(1, dispatcher.getThreads());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LogFilterTest {
+
+    @Test
+    public void createReturnsNullWithoutLimits() {
+        assertNull(LogFilter.create("", null, 0, 0));
+        assertNull(LogFilter.create("(", " ", 0, 0));
+    }
+
+    @Test
+    public void includeAndExcludePatterns() {
+        LogFilter filter = LogFilter.create("ERROR|WARN", "ignored", 0, 0);
+
+        assertTrue(filter.accept("[ERROR] build failed", 0));
+        assertTrue(filter.accept("[WARN] deprecated", 0));
+        assertFalse(filter.accept("[INFO] compiling", 0));
+        assertFalse(filter.accept("[ERROR] ignored failure", 0));
+        assertEquals(2, filter.getSuppressedLines());
+    }
+
+    @Test
+    public void rateLimitAllowsOneSecondBurst() {
+        LogFilter filter = LogFilter.create(null, null, 10, 0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(filter.accept("line", 1000));
+        }
+        assertFalse(filter.accept("line", 1000));
+        assertFalse(filter.accept("line", 1050));
+        assertTrue(filter.accept("line", 1100));
+        assertFalse(filter.accept("line", 1100));
+        assertEquals(3, filter.getSuppressedLines());
+    }
+
+    @Test
+    public void byteBudgetCountsUtf8Bytes() {
+        LogFilter filter = LogFilter.create(null, null, 0, 10);
+
+        assertTrue(filter.accept("12345", 0));
+        assertFalse(filter.accept("ñññ", 0));
+        assertTrue(filter.accept("ññ", 0));
+        assertTrue(filter.accept("1", 0));
+        assertFalse(filter.accept("1", 0));
+        assertEquals(2, filter.getSuppressedLines());
+    }
+
+    @Test
+    public void summaryOnlyReportsNewSuppressedLines() {
+        LogFilter filter = LogFilter.create(null, "debug", 1, 0);
+        assertNull(filter.nextSummary());
+
+        filter.accept("debug", 0);
+        filter.accept("first", 0);
+        filter.accept("second", 0);
+
+        assertEquals(
+                "[elastest-plugin]: 2 log lines were not sent to ElasTest"
+                        + " (1 filtered, 1 over the rate limit, 0 over the"
+                        + " byte budget)",
+                filter.nextSummary());
+        assertNull(filter.nextSummary());
+    }
+}
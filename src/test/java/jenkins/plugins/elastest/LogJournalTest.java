@@ -0,0 +1,59 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayInOrderAcrossSegments() throws Exception {
+        File directory = new File(folder.getRoot(), "journal");
+        LogJournal journal = new LogJournal(directory, 16);
+        for (int i = 1; i <= 5; i++) {
+            journal.append("{\"message\":\"payload " + i + "\"}", i);
+        }
+
+        assertFalse("Journal should not be empty", journal.isEmpty());
+        assertEquals(15, journal.getPendingLines());
+        assertTrue("Journal should use several segments",
+                directory.list().length > 1);
+
+        for (int i = 1; i <= 5; i++) {
+            String payload = "{\"message\":\"payload " + i + "\"}";
+            assertEquals(payload, journal.peek());
+            // Peeking again returns the same payload until it is removed
+            assertEquals(payload, journal.peek());
+            journal.remove();
+        }
+
+        assertNull(journal.peek());
+        assertTrue("Journal should be empty", journal.isEmpty());
+        assertEquals(0, journal.getPendingLines());
+        assertEquals(0, journal.getDroppedLines());
+    }
+
+    @Test
+    public void closeDropsPendingPayloads() throws Exception {
+        File directory = new File(folder.getRoot(), "journal");
+        LogJournal journal = new LogJournal(directory);
+        journal.append("[{\"message\":\"a\"},{\"message\":\"b\"}]", 2);
+        journal.append("{\"message\":\"c\"}", 1);
+        journal.peek();
+        journal.remove();
+
+        journal.close();
+
+        assertEquals(1, journal.getDroppedLines());
+        assertFalse("Journal directory should be deleted", directory.exists());
+    }
+}
@@ -0,0 +1,326 @@
+package jenkins.plugins.elastest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.json.ExternalJob.ExternalJobStatusEnum;
+import jenkins.plugins.elastest.json.JsonCodec;
+import jenkins.plugins.elastest.metrics.Histogram;
+
+/**
+ * HTTP server that stands in for ElasTest in load and soak tests. It serves
+ * the {@code /api/external/tjob} endpoints called by {@link ElasTestService}
+ * and takes the Logstash payloads of {@code LogstashSubmitter} on any other
+ * path, counting the traces received and how long after they were written.
+ * <p>
+ * The latency, the rate of failed requests and the bytes per second it
+ * accepts can be changed while it runs.
+ */
+public final class StubElasTestServer implements Closeable {
+    static final String TJOB_PATH = "/api/external/tjob";
+    static final String VERSION_PATH = "/api/external/elastest/version";
+    static final String VERSION = "stub";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final AtomicLong nextExecId = new AtomicLong(1);
+    private final Map<Long, ExternalJob> tJobs = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> linesByExec = new ConcurrentHashMap<>();
+    private final LongAdder payloads = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final Histogram lagMillis = new Histogram();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile long maxBytesPerSecond;
+    // Time when the bytes accepted so far fit in the cap, guarded by this
+    private long capFreeNanos;
+
+    /**
+     * Starts the server on a free port of the loopback interface.
+     *
+     * @param threads
+     *            requests served at the same time
+     */
+    public StubElasTestServer(int threads) throws IOException {
+        server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        handlers = Executors.newFixedThreadPool(threads);
+        server.setExecutor(handlers);
+        server.createContext(TJOB_PATH, this::handleTJob);
+        server.createContext(VERSION_PATH, this::handleVersion);
+        server.createContext("/", this::handleLogs);
+        server.start();
+    }
+
+    public String getHost() {
+        return server.getAddress().getHostString();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The URL of ElasTest to configure in the plugin.
+     */
+    public String getUrl() {
+        return "http://" + getHost() + ":" + getPort();
+    }
+
+    /**
+     * @param latencyMillis
+     *            time every request waits before it is answered
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param errorRate
+     *            fraction of the Logstash requests answered with HTTP 503,
+     *            between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param maxBytesPerSecond
+     *            bytes of Logstash payloads taken per second, requests over
+     *            the cap wait for their turn, 0 for no cap
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * @return The TJob execution registered with the given id, or null.
+     */
+    public ExternalJob getTJob(long tJobExecId) {
+        return tJobs.get(tJobExecId);
+    }
+
+    public long getPayloads() {
+        return payloads.sum();
+    }
+
+    public long getLines() {
+        return lines.sum();
+    }
+
+    /**
+     * @return Traces received for the given TJob execution.
+     */
+    public long getLines(long tJobExecId) {
+        LongAdder received = linesByExec.get(String.valueOf(tJobExecId));
+        return received != null ? received.sum() : 0;
+    }
+
+    /**
+     * @return Bytes of the payloads received, as sent, maybe compressed.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    /**
+     * @return Milliseconds from the timestamp of each trace to its arrival.
+     */
+    public Histogram getLagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    private void handleVersion(HttpExchange exchange) throws IOException {
+        delay();
+        respond(exchange, 200, "text/plain", VERSION);
+    }
+
+    /**
+     * POST registers a TJob execution, GET of its id returns it ready to
+     * receive logs on this server and PUT finishes it.
+     */
+    private void handleTJob(HttpExchange exchange) throws IOException {
+        delay();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(method)) {
+            ExternalJob job = JsonCodec.readExternalJob(readBody(exchange));
+            job.settJobExecId(nextExecId.getAndIncrement());
+            job.setStatus(ExternalJobStatusEnum.STARTING);
+            job.setReady(false);
+            job.setServicesIp(getHost());
+            job.setLogstashPort(String.valueOf(getPort()));
+            job.setExecutionUrl(getUrl() + "/#/tjob/" + job.gettJobExecId());
+            tJobs.put(job.gettJobExecId(), job);
+            respond(exchange, 200, "application/json", job.toJSON());
+        } else if ("PUT".equals(method)) {
+            ExternalJob finished = JsonCodec
+                    .readExternalJob(readBody(exchange));
+            ExternalJob job = finished.gettJobExecId() != null
+                    ? tJobs.get(finished.gettJobExecId())
+                    : null;
+            if (job == null) {
+                respond(exchange, 404, "text/plain", "Unknown TJob");
+                return;
+            }
+            job.setResult(finished.getResult());
+            respond(exchange, 200, "application/json", job.toJSON());
+        } else if ("GET".equals(method)) {
+            ExternalJob job = null;
+            try {
+                job = tJobs.get(Long.valueOf(
+                        path.substring(path.lastIndexOf('/') + 1)));
+            } catch (NumberFormatException e) {
+                // Unknown TJob
+            }
+            if (job == null) {
+                respond(exchange, 404, "text/plain", "Unknown TJob");
+                return;
+            }
+            job.setStatus(ExternalJobStatusEnum.READY);
+            job.setReady(true);
+            respond(exchange, 200, "application/json", job.toJSON());
+        } else {
+            respond(exchange, 405, "text/plain", method);
+        }
+    }
+
+    private void handleLogs(HttpExchange exchange) throws IOException {
+        delay();
+        byte[] body = readBytes(exchange.getRequestBody());
+        throttle(body.length);
+        if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            failedRequests.increment();
+            respond(exchange, 503, "text/plain", "Injected failure");
+            return;
+        }
+        boolean gzip = "gzip".equalsIgnoreCase(
+                exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        long received = System.currentTimeMillis();
+        JsonNode payload = MAPPER.readTree(gzip
+                ? readBytes(new GZIPInputStream(new ByteArrayInputStream(body)))
+                : body);
+        if (payload.isArray()) {
+            for (JsonNode trace : payload) {
+                count(trace, received);
+            }
+        } else {
+            count(payload, received);
+        }
+        payloads.increment();
+        bytes.add(body.length);
+        respond(exchange, 200, "text/plain", "ok");
+    }
+
+    private void count(JsonNode trace, long received) {
+        lines.increment();
+        linesByExec.computeIfAbsent(trace.path("exec").asText(),
+                exec -> new LongAdder()).increment();
+        try {
+            lagMillis.record(received - Instant
+                    .parse(trace.path("@timestamp").asText()).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            // Traces without a timestamp do not count for the lag
+        }
+    }
+
+    private void delay() {
+        sleep(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+    }
+
+    /**
+     * Makes the request wait until its bytes fit in the cap, after the bytes
+     * of the requests before it.
+     */
+    private void throttle(long length) {
+        long max = maxBytesPerSecond;
+        if (max <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            capFreeNanos = Math.max(now, capFreeNanos)
+                    + length * TimeUnit.SECONDS.toNanos(1) / max;
+            wait = capFreeNanos - now;
+        }
+        sleep(wait);
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        return new String(readBytes(exchange.getRequestBody()),
+                StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status,
+            String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
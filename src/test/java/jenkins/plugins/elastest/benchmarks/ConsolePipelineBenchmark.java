@@ -0,0 +1,118 @@
+package jenkins.plugins.elastest.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hudson.console.ConsoleNote;
+import jenkins.plugins.elastest.ElasTestOutputStream;
+import jenkins.plugins.elastest.InProcessPipeline;
+
+/**
+ * Measures the console lines per second of a build, from
+ * {@link ElasTestOutputStream} to the Logstash payload built for them, with
+ * a stub submitter. Each operation is a line. The writer threads build and
+ * deliver the payloads, so run it with {@code -prof gc} to get the bytes
+ * allocated per line by all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsolePipelineBenchmark {
+  private static final int DISTINCT_LINES = 64;
+  private static final String TEXT =
+      "[INFO] Tests run: 12, Failures: 0, Errors: 0, Skipped: 1, "
+          + "Time elapsed: 0.734 s - in io.elastest.demo.WebAppTest ";
+  // Serialized HyperlinkNote of a typical size
+  private static final String NOTE = ConsoleNote.PREAMBLE_STR
+      + "AAAAoB+LCAAAAAAAAP9b85aBtbiIQTGjNKU4P08vOT+vOD8nVc83PyU1x6OyILUo"
+      + "JzMv2y+/JJUBAhiZGBgqihhk0NSD1XEYlGnMdGsnvVHTkLNE9tyUQGqgbdSgIAAMRb"
+      + "0UbwAAAA==" + ConsoleNote.POSTAMBLE_STR;
+  private static final String COLOR = "\u001B[1;32m";
+  private static final String RESET = "\u001B[0m";
+
+  /** Characters of the text of each line, notes and ANSI codes aside. */
+  @Param({ "80", "512", "4096" })
+  int lineLength;
+
+  /** Console notes of each line, each one with a colored word. */
+  @Param({ "0", "1", "4" })
+  int notesPerLine;
+
+  /** Lines of each payload. */
+  @Param({ "1", "100", "1000" })
+  int batchSize;
+
+  private InProcessPipeline pipeline;
+  private OutputStream console;
+  private byte[][] lines;
+  private long written;
+
+  @Setup
+  public void setUp() throws IOException {
+    pipeline = new InProcessPipeline(batchSize);
+    console = pipeline.getConsole();
+    lines = new byte[DISTINCT_LINES][];
+    for (int i = 0; i < DISTINCT_LINES; i++) {
+      lines[i] = line(i).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  private String line(int number) {
+    StringBuilder text = new StringBuilder(lineLength);
+    text.append(number).append(' ');
+    while (text.length() < lineLength) {
+      text.append(TEXT);
+    }
+    text.setLength(lineLength);
+    StringBuilder line = new StringBuilder();
+    int from = 0;
+    for (int note = 1; note <= notesPerLine; note++) {
+      int at = text.lastIndexOf(" ", note * lineLength / (notesPerLine + 1));
+      if (at < from) {
+        continue;
+      }
+      line.append(text, from, at + 1).append(NOTE).append(COLOR);
+      int end = text.indexOf(" ", at + 1);
+      end = end < 0 ? lineLength : end;
+      line.append(text, at + 1, end).append(RESET);
+      from = end;
+    }
+    return line.append(text, from, lineLength).append('\n').toString();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    pipeline.close();
+  }
+
+  /**
+   * Writes a line and, when it completes a batch, waits for its payload to
+   * be delivered so that the lines are not queued faster than sent.
+   */
+  @Benchmark
+  public void writeLine() throws IOException {
+    byte[] line = lines[(int) (written % DISTINCT_LINES)];
+    console.write(line, 0, line.length);
+    if (++written % batchSize == 0) {
+      pipeline.awaitPayloads(written / batchSize);
+    }
+  }
+}
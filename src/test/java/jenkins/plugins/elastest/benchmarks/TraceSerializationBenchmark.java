@@ -0,0 +1,80 @@
+package jenkins.plugins.elastest.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jenkins.plugins.elastest.json.JsonCodec;
+import jenkins.plugins.elastest.json.Trace;
+
+/**
+ * Compares the per-call {@link ObjectMapper} serialization of traces used
+ * before {@link JsonCodec} with the shared writer and the streaming batch
+ * encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceSerializationBenchmark {
+
+  @Param({ "1", "100" })
+  int batchSize;
+
+  List<Trace> traces;
+
+  @Setup
+  public void setUp() {
+    traces = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      traces.add(new Trace("test", "42", "default_log",
+          "[INFO] Running jenkins.plugins.elastest.SomeTest line " + i,
+          "Thu Jan 10 10:00:00 CET 2019"));
+    }
+  }
+
+  @Benchmark
+  public String mapperPerTrace() throws Exception {
+    StringBuilder payload = new StringBuilder("[");
+    for (Trace trace : traces) {
+      if (payload.length() > 1) {
+        payload.append(',');
+      }
+      payload.append(new ObjectMapper().writeValueAsString(trace));
+    }
+    return payload.append(']').toString();
+  }
+
+  @Benchmark
+  public String sharedWriterPerTrace() throws Exception {
+    StringBuilder payload = new StringBuilder("[");
+    for (Trace trace : traces) {
+      if (payload.length() > 1) {
+        payload.append(',');
+      }
+      payload.append(JsonCodec.writeTrace(trace));
+    }
+    return payload.append(']').toString();
+  }
+
+  @Benchmark
+  public String streamedBatch() throws Exception {
+    return JsonCodec.writeTraces(traces);
+  }
+}
@@ -0,0 +1,86 @@
+package jenkins.plugins.elastest.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonCodecTest {
+
+  @Test
+  public void streamedTracesMatchDatabindOutput() throws Exception {
+    Trace first = new Trace("test", "1", "default_log", "line \"one\"", "now");
+    Trace second = new Trace("test", "1", "default_log", null, "now");
+    ObjectMapper mapper = new ObjectMapper();
+
+    JsonNode expected = mapper.createArrayNode()
+        .add(mapper.readTree(first.toJSON()))
+        .add(mapper.readTree(second.toJSON()));
+    JsonNode actual = mapper.readTree(JsonCodec.writeTraces(Arrays.asList(first, second)));
+
+    assertEquals(expected, actual);
+    assertEquals("now", actual.get(0).get("@timestamp").asText());
+  }
+
+  @Test
+  public void externalJobRoundTrip() throws Exception {
+    ExternalJob externalJob = new ExternalJob();
+    externalJob.setJobName("job");
+    externalJob.setDroppedLogLines(3);
+
+    ExternalJob read = JsonCodec.readExternalJob(JsonCodec.writeExternalJob(externalJob));
+
+    assertEquals(externalJob, read);
+  }
+
+  @Test
+  public void streamedTracesIncludeSequenceAndOffset() throws Exception {
+    Trace first = new Trace("test", "1", "default_log", "first", "now", 1, 0);
+    Trace second = new Trace("test", "1", "default_log", "second", "now", 2, 6);
+    ObjectMapper mapper = new ObjectMapper();
+
+    JsonNode expected = mapper.createArrayNode()
+        .add(mapper.readTree(first.toJSON()))
+        .add(mapper.readTree(second.toJSON()));
+    JsonNode actual = mapper.readTree(JsonCodec.writeTraces(Arrays.asList(first, second)));
+
+    assertEquals(expected, actual);
+    assertEquals(1, actual.get(0).get("sequence").asLong());
+    assertFalse(actual.get(0).has("offset"));
+    assertEquals(2, actual.get(1).get("sequence").asLong());
+    assertEquals(6, actual.get(1).get("offset").asLong());
+  }
+
+  @Test
+  public void traceRoundTripKeepsSequenceAndOffset() throws Exception {
+    Trace trace = new Trace("test", "1", "default_log", "line", "now", 7, 42);
+
+    Trace read = JsonCodec.readTrace(JsonCodec.writeTraceAsBytes(trace));
+
+    assertEquals(7, read.getSequence());
+    assertEquals(42, read.getOffset());
+  }
+
+  @Test
+  public void streamedTracesIncludeRepeats() throws Exception {
+    Trace repeats = new Trace("test", "1", "default_log", "Waiting", "first", 2, 8);
+    repeats.setRepeats(41);
+    repeats.setRepeatOf(1);
+    repeats.setLastTimestampStr("last");
+    ObjectMapper mapper = new ObjectMapper();
+
+    JsonNode expected = mapper.createArrayNode().add(mapper.readTree(repeats.toJSON()));
+    JsonNode actual = mapper.readTree(JsonCodec.writeTraces(Arrays.asList(repeats)));
+
+    assertEquals(expected, actual);
+    assertEquals(41, actual.get(0).get("repeats").asLong());
+    assertEquals(1, actual.get(0).get("repeatOf").asLong());
+    assertEquals("first", actual.get(0).get("@timestamp").asText());
+    assertEquals("last", actual.get(0).get("lastTimestamp").asText());
+  }
+}
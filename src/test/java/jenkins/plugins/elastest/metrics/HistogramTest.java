@@ -0,0 +1,59 @@
+package jenkins.plugins.elastest.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 4; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1, histogram.getPercentile(0.5));
+        assertEquals(3, histogram.getPercentile(1));
+        assertEquals(1.5, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertWithin(500, histogram.getPercentile(0.5));
+        assertWithin(990, histogram.getPercentile(0.99));
+        assertEquals(1000, histogram.getPercentile(1));
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (long value : new long[] { 0, 1, 4, 5, 7, 8, 1023, 1024,
+                Long.MAX_VALUE }) {
+            int index = Histogram.indexOf(value);
+            assertTrue(value <= Histogram.upperBoundOf(index));
+            assertTrue(index == 0
+                    || value > Histogram.upperBoundOf(index - 1));
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.25);
+    }
+}
@@ -0,0 +1,112 @@
+package jenkins.plugins.elastest.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class LogMetricsTest {
+
+    @Test
+    public void buildMetricsAddUpInInstallation() {
+        LogMetrics installation = LogMetrics.installation();
+        long captured = installation.getLinesCaptured();
+        long sent = installation.getLinesSent();
+        long retries = installation.getRetries();
+        LogMetrics build = LogMetrics.forBuild("sum #1", () -> 0, () -> 0,
+                () -> 0);
+
+        build.lineCaptured(10);
+        build.lineCaptured(20);
+        build.payloadSent(2, 100);
+        build.retry();
+
+        assertEquals(2, build.getLinesCaptured());
+        assertEquals(30, build.getBytesCaptured());
+        assertEquals(captured + 2, installation.getLinesCaptured());
+        assertEquals(sent + 2, installation.getLinesSent());
+        assertEquals(retries + 1, installation.getRetries());
+        build.unregister();
+    }
+
+    @Test
+    public void installationGaugesSumActiveBuilds() {
+        LogMetrics installation = LogMetrics.installation();
+        long depth = installation.getQueueDepth();
+        long dropped = installation.getLinesDropped();
+        long droppedBytes = installation.getBytesDropped();
+        LogMetrics build = LogMetrics.forBuild("gauges #1", () -> 7, () -> 3,
+                () -> 30);
+
+        assertEquals(depth + 7, installation.getQueueDepth());
+        assertEquals(dropped + 3, installation.getLinesDropped());
+        assertEquals(droppedBytes + 30, installation.getBytesDropped());
+
+        build.unregister();
+
+        assertEquals(depth, installation.getQueueDepth());
+        assertEquals(dropped + 3, installation.getLinesDropped());
+        assertEquals(droppedBytes + 30, installation.getBytesDropped());
+    }
+
+    @Test
+    public void requestsRecordLatencyAndFailures() {
+        LogMetrics build = LogMetrics.forBuild("requests #1", () -> 0, () -> 0,
+                () -> 0);
+
+        build.requestCompleted(TimeUnit.MILLISECONDS.toNanos(40), true);
+        build.requestCompleted(TimeUnit.MILLISECONDS.toNanos(400), false);
+
+        assertEquals(2, build.getRequests());
+        assertEquals(1, build.getFailedRequests());
+        assertEquals(400, build.getRequestLatencyMillisMax());
+        assertTrue(build.getRequestLatencyMillisP50() >= 40);
+        build.unregister();
+    }
+
+    @Test
+    public void buildMetricsArePublishedWhileActive() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        LogMetrics build = LogMetrics.forBuild("jmx #1", () -> 5, () -> 0,
+                () -> 0);
+        ObjectName name = new ObjectName(LogMetrics.DOMAIN
+                + ":type=LogMetrics,scope=build,name="
+                + ObjectName.quote("jmx #1") + ",id=" + build.getId());
+        build.lineEnqueued(3);
+
+        assertTrue(server.isRegistered(name));
+        assertEquals(5L, server.getAttribute(name, "QueueDepth"));
+        assertEquals(1L, server.getAttribute(name, "LinesEnqueued"));
+
+        build.unregister();
+
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void writersOfTheSameBuildArePublishedApart() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        LogMetrics first = LogMetrics.forBuild("jmx #2", () -> 1, () -> 0,
+                () -> 0);
+        LogMetrics second = LogMetrics.forBuild("jmx #2", () -> 2, () -> 0,
+                () -> 0);
+
+        assertFalse(first.getObjectName().equals(second.getObjectName()));
+        assertTrue(server.isRegistered(first.getObjectName()));
+        assertTrue(server.isRegistered(second.getObjectName()));
+
+        second.unregister();
+
+        assertTrue(server.isRegistered(first.getObjectName()));
+        assertEquals(1L, server.getAttribute(first.getObjectName(),
+                "QueueDepth"));
+        first.unregister();
+    }
+}
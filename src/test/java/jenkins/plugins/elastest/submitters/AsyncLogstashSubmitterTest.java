@@ -0,0 +1,144 @@
+package jenkins.plugins.elastest.submitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncLogstashSubmitterTest {
+    AsyncLogstashSubmitter submitter;
+    @Mock
+    HttpAsyncClientBuilder mockClientBuilder;
+    @Mock
+    CloseableHttpAsyncClient mockHttpClient;
+    @Mock
+    HttpResponse mockResponse;
+    @Mock
+    StatusLine mockStatusLine;
+
+    AsyncLogstashSubmitter createSubmitter(SubmitterSettings settings) {
+        return new AsyncLogstashSubmitter(mockClientBuilder, "localhost", 8200,
+                "logstash", "", "", settings);
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void before() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings());
+
+        when(mockClientBuilder.build()).thenReturn(mockHttpClient);
+        when(mockResponse.getStatusLine()).thenReturn(mockStatusLine);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ((FutureCallback<HttpResponse>) invocation.getArguments()[1])
+                        .completed(mockResponse);
+                return null;
+            }
+        }).when(mockHttpClient).execute(any(HttpUriRequest.class),
+                any(FutureCallback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void pushAsyncSuccess() throws Exception {
+        when(mockStatusLine.getStatusCode()).thenReturn(201);
+
+        // Unit under test
+        CompletableFuture<Boolean> result = submitter
+                .pushAsync("{ 'foo': 'bar' }");
+
+        assertTrue("Message not sent", result.get());
+        verify(mockHttpClient).start();
+        verify(mockHttpClient).execute(any(HttpUriRequest.class),
+                any(FutureCallback.class));
+    }
+
+    @Test
+    public void pushFailStatusCode() throws Exception {
+        when(mockStatusLine.getStatusCode()).thenReturn(500);
+
+        // Unit under test
+        assertFalse("Message sent", submitter.push("{ 'foo': 'bar' }"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void pushAsyncFailedRequest() throws Exception {
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ((FutureCallback<HttpResponse>) invocation.getArguments()[1])
+                        .failed(new java.net.ConnectException("refused"));
+                return null;
+            }
+        }).when(mockHttpClient).execute(any(HttpUriRequest.class),
+                any(FutureCallback.class));
+
+        // Unit under test
+        assertFalse("Message sent",
+                submitter.pushAsync("{ 'foo': 'bar' }").get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void pushAsyncFallsBackToUncompressedWhenRejected()
+            throws Exception {
+        submitter = createSubmitter(new SubmitterSettings()
+                .setCompressionEnabled(true).setCompressionThreshold(4));
+        when(mockStatusLine.getStatusCode()).thenReturn(415, 201);
+
+        // Unit under test
+        assertTrue("Message not sent",
+                submitter.pushAsync("{ 'foo': 'bar' }").get());
+
+        ArgumentCaptor<HttpUriRequest> posts = ArgumentCaptor
+                .forClass(HttpUriRequest.class);
+        verify(mockHttpClient, times(2)).execute(posts.capture(),
+                any(FutureCallback.class));
+        assertEquals("gzip", ((HttpPost) posts.getAllValues().get(0))
+                .getEntity().getContentEncoding().getValue());
+        assertFalse("Compression not disabled",
+                submitter.shouldCompress("{ 'foo': 'bar' }"));
+    }
+
+    @Test
+    public void closeReleasesClient() throws Exception {
+        when(mockStatusLine.getStatusCode()).thenReturn(201);
+        submitter.push("{ 'foo': 'bar' }");
+
+        // Unit under test
+        submitter.close();
+
+        verify(mockHttpClient).close();
+    }
+
+    @Test
+    public void submitterType() {
+        assertEquals(ElasTestSubmitter.SubmitterType.LOGSTASH_ASYNC,
+                submitter.getSubmitterType());
+    }
+}
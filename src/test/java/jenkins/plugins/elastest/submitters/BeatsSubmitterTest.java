@@ -0,0 +1,225 @@
+package jenkins.plugins.elastest.submitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jenkins.plugins.elastest.json.Trace;
+
+public class BeatsSubmitterTest {
+    ServerSocket server;
+    Thread serverThread;
+    List<String> events = new CopyOnWriteArrayList<>();
+    List<Integer> windows = new CopyOnWriteArrayList<>();
+    AtomicInteger compressedFrames = new AtomicInteger();
+    AtomicInteger connections = new AtomicInteger();
+    volatile int closeAfterWindows = Integer.MAX_VALUE;
+    BeatsSubmitter submitter;
+
+    @Before
+    public void before() throws Exception {
+        server = new ServerSocket(0);
+        serverThread = new Thread(this::serve);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        if (submitter != null) {
+            submitter.close();
+        }
+        server.close();
+        serverThread.join(5000);
+    }
+
+    BeatsSubmitter createSubmitter(SubmitterSettings settings) {
+        return new BeatsSubmitter("localhost", server.getLocalPort(), "", "",
+                "", settings);
+    }
+
+    @Test
+    public void pushSendsOneWindowAndWaitsForItsAck() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings());
+
+        assertTrue(submitter.push("{\"message\":\"a\"}\n{\"message\":\"b\"}"));
+
+        assertEquals(Arrays.asList(2), windows);
+        assertEquals(Arrays.asList("{\"message\":\"a\"}", "{\"message\":\"b\"}"),
+                events);
+        assertEquals(0, compressedFrames.get());
+    }
+
+    @Test
+    public void pushSplitsLargeBatchesInWindows() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings());
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < BeatsSubmitter.MAX_WINDOW_SIZE + 10; i++) {
+            data.append("{\"message\":\"").append(i).append("\"}\n");
+        }
+
+        assertTrue(submitter.push(data.toString()));
+
+        assertEquals(Arrays.asList(BeatsSubmitter.MAX_WINDOW_SIZE, 10),
+                windows);
+        assertEquals(BeatsSubmitter.MAX_WINDOW_SIZE + 10, events.size());
+        assertEquals(1, connections.get());
+    }
+
+    @Test
+    public void pushCompressesWindowsOverThreshold() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings()
+                .setCompressionEnabled(true).setCompressionThreshold(10));
+
+        assertTrue(submitter.push("{\"message\":\"compressed\"}"));
+
+        assertEquals(1, compressedFrames.get());
+        assertEquals(Arrays.asList("{\"message\":\"compressed\"}"), events);
+    }
+
+    @Test
+    public void pushReconnectsWhenServerClosesConnection() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings());
+        closeAfterWindows = 1;
+
+        assertTrue(submitter.push("{\"message\":\"first\"}"));
+        assertTrue(submitter.push("{\"message\":\"second\"}"));
+
+        assertEquals(Arrays.asList("{\"message\":\"first\"}",
+                "{\"message\":\"second\"}"), events);
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void pushResendsOnlyTheWindowsNotAcknowledged() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings());
+        closeAfterWindows = 1;
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < BeatsSubmitter.MAX_WINDOW_SIZE + 10; i++) {
+            data.append("{\"message\":\"").append(i).append("\"}\n");
+        }
+
+        assertTrue(submitter.push(data.toString()));
+
+        assertEquals(Arrays.asList(BeatsSubmitter.MAX_WINDOW_SIZE, 10),
+                windows);
+        assertEquals(BeatsSubmitter.MAX_WINDOW_SIZE + 10, events.size());
+        assertEquals("{\"message\":\"" + BeatsSubmitter.MAX_WINDOW_SIZE
+                + "\"}", events.get(BeatsSubmitter.MAX_WINDOW_SIZE));
+        assertEquals(2, connections.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void pushFailsWhenServerIsDown() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings());
+        server.close();
+
+        submitter.push("{\"message\":\"lost\"}");
+    }
+
+    @Test
+    public void buildPayloadWritesOneTracePerLine() throws Exception {
+        submitter = createSubmitter(new SubmitterSettings());
+        String payload = submitter.buildPayload(Arrays.asList(
+                new Trace("test", "1", "default_log", "line\nbreak",
+                        "2019-01-01T00:00:00.000Z"),
+                new Trace("test", "1", "default_log", "second",
+                        "2019-01-01T00:00:00.001Z")));
+
+        List<byte[]> lines = BeatsSubmitter.splitEvents(payload);
+        assertEquals(2, lines.size());
+        assertTrue(new String(lines.get(0), StandardCharsets.UTF_8)
+                .contains("\"message\":\"line\\nbreak\""));
+        assertFalse(new String(lines.get(1), StandardCharsets.UTF_8)
+                .contains("\n"));
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                connections.incrementAndGet();
+                DataInputStream in = new DataInputStream(
+                        socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(
+                        socket.getOutputStream());
+                int served = 0;
+                while (served < closeAfterWindows) {
+                    int window = readWindow(in);
+                    windows.add(window);
+                    out.writeByte('2');
+                    out.writeByte('A');
+                    out.writeInt(window);
+                    out.flush();
+                    served++;
+                }
+            } catch (IOException e) {
+                // Connection closed by the client or the test
+            }
+        }
+    }
+
+    private int readWindow(DataInputStream in) throws IOException {
+        expectFrame(in, 'W');
+        int size = in.readInt();
+        int read = 0;
+        while (read < size) {
+            byte version = in.readByte();
+            byte type = in.readByte();
+            if (version != '2') {
+                throw new EOFException("Bad version " + version);
+            }
+            if (type == 'C') {
+                compressedFrames.incrementAndGet();
+                byte[] compressed = new byte[in.readInt()];
+                in.readFully(compressed);
+                InputStream inflated = new InflaterInputStream(
+                        new ByteArrayInputStream(compressed));
+                DataInputStream frames = new DataInputStream(inflated);
+                while (read < size) {
+                    expectFrame(frames, 'J');
+                    read += readEvent(frames, read);
+                }
+            } else if (type == 'J') {
+                read += readEvent(in, read);
+            } else {
+                throw new EOFException("Unexpected frame " + (char) type);
+            }
+        }
+        return size;
+    }
+
+    private int readEvent(DataInputStream in, int read) throws IOException {
+        assertEquals(read + 1, in.readInt());
+        byte[] event = new byte[in.readInt()];
+        in.readFully(event);
+        events.add(new String(event, StandardCharsets.UTF_8));
+        return 1;
+    }
+
+    private void expectFrame(DataInputStream in, char type) throws IOException {
+        byte version = in.readByte();
+        byte actual = in.readByte();
+        if (version != '2' || actual != type) {
+            throw new EOFException("Expected frame " + type);
+        }
+    }
+}
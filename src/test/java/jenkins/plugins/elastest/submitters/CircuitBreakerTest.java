@@ -0,0 +1,79 @@
+package jenkins.plugins.elastest.submitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import jenkins.plugins.elastest.submitters.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+    final AtomicLong now = new AtomicLong();
+    final CircuitBreaker breaker = new CircuitBreaker("localhost:5003", 3,
+            1000, 4000, now::get);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpenAllowsOneTrial() {
+        open();
+        now.addAndGet(1000);
+
+        assertTrue("Trial should be allowed", breaker.allowRequest());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertFalse("Only one trial allowed", breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialDoublesOpenTimeUpToMax() {
+        open();
+        now.set(1000);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+
+        // Open for 2000 ms, then 4000 ms twice as the maximum is reached
+        long reopenedAt = 1000;
+        for (long openMillis : new long[] { 2000, 4000, 4000 }) {
+            assertEquals(State.OPEN, breaker.getState());
+            now.set(reopenedAt + openMillis - 1);
+            assertFalse(breaker.allowRequest());
+            now.set(reopenedAt + openMillis);
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+            reopenedAt += openMillis;
+        }
+    }
+
+    @Test
+    public void sharedPerDestination() {
+        assertSame(CircuitBreaker.forDestination("host:1"),
+                CircuitBreaker.forDestination("host:1"));
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package jenkins.plugins.elastest.submitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CongestionControlTest {
+    final AtomicLong now = new AtomicLong();
+    final CongestionControl control = new CongestionControl("localhost:5003",
+            1000, now::get);
+
+    @Test
+    public void fullBatchesDeliveredInTimeGrowTheBatchSize() {
+        deliver(CongestionControl.INITIAL_BATCH_LINES, 100);
+        assertEquals(CongestionControl.INITIAL_BATCH_LINES
+                + CongestionControl.BATCH_LINES_STEP, control.getBatchLines());
+
+        // Batches smaller than the size do not need more lines
+        deliver(10, 100);
+        assertEquals(CongestionControl.INITIAL_BATCH_LINES
+                + CongestionControl.BATCH_LINES_STEP, control.getBatchLines());
+    }
+
+    @Test
+    public void windowGrowsByOneRequestPerWindowDelivered() {
+        deliver(0, 100);
+        assertEquals(CongestionControl.INITIAL_WINDOW, control.getWindow());
+        deliver(0, 100);
+        assertEquals(CongestionControl.INITIAL_WINDOW + 1,
+                control.getWindow());
+    }
+
+    @Test
+    public void slowRequestsStopTheGrowth() {
+        deliver(CongestionControl.INITIAL_BATCH_LINES, 1001);
+        deliver(CongestionControl.INITIAL_BATCH_LINES, 1001);
+
+        assertEquals(CongestionControl.INITIAL_BATCH_LINES,
+                control.getBatchLines());
+        assertEquals(CongestionControl.INITIAL_WINDOW, control.getWindow());
+    }
+
+    @Test
+    public void failureHalvesBatchSizeAndWindowOnce() {
+        for (int i = 0; i < 6; i++) {
+            deliver(control.getBatchLines(), 100);
+        }
+        int batchLines = control.getBatchLines();
+        int window = control.getWindow();
+        CongestionControl.Permit first = acquire();
+        CongestionControl.Permit second = acquire();
+        now.addAndGet(3000);
+
+        control.recordResponse(first, 0, false);
+        control.recordResponse(second, 0, false);
+
+        assertEquals(batchLines / 2, control.getBatchLines());
+        assertEquals(window / 2, control.getWindow());
+
+        // A request sent after the decrease decreases again
+        control.recordResponse(acquire(), 0, false);
+        assertEquals(batchLines / 4, control.getBatchLines());
+    }
+
+    @Test
+    public void failuresKeepTheMinimums() {
+        for (int i = 0; i < 10; i++) {
+            control.recordResponse(acquire(), 0, false);
+            now.incrementAndGet();
+        }
+
+        assertEquals(CongestionControl.MIN_BATCH_LINES,
+                control.getBatchLines());
+        assertEquals(1, control.getWindow());
+    }
+
+    @Test
+    public void fullWindowMakesRequestsWait() {
+        CongestionControl.Permit first = acquire();
+        for (int i = 1; i < CongestionControl.INITIAL_WINDOW; i++) {
+            acquire();
+        }
+        CompletableFuture<CongestionControl.Permit> waiting = control
+                .acquire();
+        assertFalse(waiting.isDone());
+
+        control.release(first);
+
+        assertNotNull(waiting.getNow(null));
+        assertEquals(0, control.getWaiters());
+    }
+
+    @Test
+    public void responseGivesThePlaceToTheNextWaiter() {
+        CongestionControl.Permit first = acquire();
+        for (int i = 1; i < CongestionControl.INITIAL_WINDOW; i++) {
+            acquire();
+        }
+        CompletableFuture<CongestionControl.Permit> waiting = control
+                .acquire();
+
+        control.recordResponse(first, 0, true);
+        // A place given back twice is counted once
+        control.release(first);
+
+        assertTrue(waiting.isDone());
+        assertFalse(control.acquire().isDone());
+    }
+
+    @Test
+    public void negativeClockDoesNotLeakPlaces() {
+        now.set(-5000);
+
+        for (int i = 0; i < 10; i++) {
+            deliver(0, 100);
+        }
+
+        assertEquals(CongestionControl.INITIAL_WINDOW + 3,
+                control.getWindow());
+        assertEquals(0, control.getWaiters());
+    }
+
+    @Test
+    public void sharedPerDestination() {
+        assertSame(CongestionControl.forDestination("host:1"),
+                CongestionControl.forDestination("host:1"));
+        assertTrue(CongestionControl.getBatchLinesByDestination()
+                .containsKey("host:1"));
+    }
+
+    private CongestionControl.Permit acquire() {
+        CongestionControl.Permit permit = control.acquire().getNow(null);
+        assertNotNull("The window is full", permit);
+        return permit;
+    }
+
+    private void deliver(int lines, long latencyMillis) {
+        CongestionControl.Permit permit = acquire();
+        now.addAndGet(latencyMillis);
+        control.recordResponse(permit, lines, true);
+    }
+}
@@ -1,32 +1,45 @@
 package jenkins.plugins.elastest.submitters;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.Arrays;
 
 import org.apache.commons.lang.CharEncoding;
 import org.apache.http.HttpEntity;
 import org.apache.http.StatusLine;
+import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.sun.net.httpserver.HttpServer;
+
+import jenkins.plugins.elastest.json.JsonCodec;
+import jenkins.plugins.elastest.json.Trace;
+
 @RunWith(MockitoJUnitRunner.class)
 public class LogstashSubmitterTest {
     LogstashSubmitter submitter;
@@ -173,6 +186,60 @@ public class LogstashSubmitterTest {
                 "{ 'foo': 'bar' }");
     }
 
+    @Test
+    public void getPostCompressed() throws Exception {
+        String json = "{ 'foo': 'bar' }";
+        submitter = new LogstashSubmitter(mockClientBuilder, "localhost", 8200,
+                "logstash", "", "", new SubmitterSettings()
+                        .setCompressionEnabled(true).setCompressionThreshold(4));
+
+        // Unit under test
+        HttpPost post = submitter.getHttpPost(json);
+        HttpEntity entity = post.getEntity();
+
+        assertEquals("Wrong content encoding", "gzip",
+                entity.getContentEncoding().getValue());
+        assertEquals("Wrong content type", entity.getContentType().getValue(),
+                ContentType.APPLICATION_JSON.toString());
+        assertEquals("Wrong content", json, EntityUtils.toString(
+                new GzipDecompressingEntity(entity), CharEncoding.UTF_8));
+    }
+
+    @Test
+    public void getPostBelowCompressionThreshold() throws Exception {
+        submitter = new LogstashSubmitter(mockClientBuilder, "localhost", 8200,
+                "logstash", "", "", new SubmitterSettings()
+                        .setCompressionEnabled(true).setCompressionThreshold(1024));
+
+        // Unit under test
+        HttpPost post = submitter.getHttpPost("{ 'foo': 'bar' }");
+
+        assertTrue("Wrong content class", post.getEntity() instanceof StringEntity);
+        assertEquals("Wrong content encoding", null,
+                post.getEntity().getContentEncoding());
+    }
+
+    @Test
+    public void pushFallsBackToUncompressedWhenRejected() throws Exception {
+        String json = "{ 'foo': 'bar' }";
+        submitter = new LogstashSubmitter(mockClientBuilder, "localhost", 8200,
+                "logstash", "", "", new SubmitterSettings()
+                        .setCompressionEnabled(true).setCompressionThreshold(4));
+
+        when(mockStatusLine.getStatusCode()).thenReturn(415, 201);
+
+        // Unit under test
+        assertTrue("Message not sent", submitter.push(json));
+
+        ArgumentCaptor<HttpPost> posts = ArgumentCaptor.forClass(HttpPost.class);
+        verify(mockHttpClient, times(2)).execute(posts.capture());
+        assertEquals("gzip", posts.getAllValues().get(0).getEntity()
+                .getContentEncoding().getValue());
+        assertEquals(null, posts.getAllValues().get(1).getEntity()
+                .getContentEncoding());
+        assertFalse("Compression not disabled", submitter.shouldCompress(json));
+    }
+
     @Test
     public void pushSuccess() throws Exception {
         String json = "{ 'foo': 'bar' }";
@@ -188,9 +255,66 @@ public class LogstashSubmitterTest {
         verify(mockHttpClient).execute(any(HttpPost.class));
         verify(mockStatusLine, atLeastOnce()).getStatusCode();
         verify(mockResponse).close();
+        verify(mockHttpClient, never()).close();
+    }
+
+    @Test
+    public void pushReusesClient() throws Exception {
+        String json = "{ 'foo': 'bar' }";
+        submitter = createSubmitter("http://localhost", 8200,
+                "/jenkins/logstash", "", "");
+
+        when(mockStatusLine.getStatusCode()).thenReturn(201);
+
+        // Unit under test
+        submitter.push(json);
+        submitter.push(json);
+
+        verify(mockClientBuilder, times(1)).build();
+        verify(mockHttpClient, times(2)).execute(any(HttpPost.class));
+        verify(mockResponse, times(2)).close();
+        verify(mockHttpClient, never()).close();
+    }
+
+    @Test
+    public void closeReleasesClient() throws Exception {
+        String json = "{ 'foo': 'bar' }";
+        submitter = createSubmitter("http://localhost", 8200,
+                "/jenkins/logstash", "", "");
+
+        when(mockStatusLine.getStatusCode()).thenReturn(201);
+        submitter.push(json);
+
+        // Unit under test
+        submitter.close();
+
         verify(mockHttpClient).close();
     }
 
+    @Test
+    public void pushAfterCloseUsesNewConnectionPool() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            submitter = new LogstashSubmitter("localhost",
+                    server.getAddress().getPort(), "logstash", "", "");
+            assertTrue(submitter.push("{}"));
+
+            // Unit under test
+            submitter.close();
+
+            // Verify results
+            assertTrue(submitter.push("{}"));
+            submitter.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
     @Test
     public void pushFailStatusCode() throws Exception {
         String json = "{ 'foo': 'bar' }";
@@ -209,6 +333,19 @@ public class LogstashSubmitterTest {
         verify(mockHttpClient).execute(any(HttpPost.class));
         verify(mockStatusLine, atLeastOnce()).getStatusCode();
         verify(mockResponse).close();
-        verify(mockHttpClient).close();
+        verify(mockHttpClient, never()).close();
+    }
+
+    @Test
+    public void countTracesIgnoresTheTimestampsInsideMessages()
+            throws Exception {
+        String payload = JsonCodec.writeTraces(Arrays.asList(
+                new Trace("test", "1", "default_log",
+                        "{\"@timestamp\": \"now\"}",
+                        "2019-01-01T00:00:00.000Z"),
+                new Trace("test", "1", "default_log", "second",
+                        "2019-01-01T00:00:00.001Z")));
+
+        assertEquals(2, LogstashSubmitter.countTraces(payload));
     }
 }
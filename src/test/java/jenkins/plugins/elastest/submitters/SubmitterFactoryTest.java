@@ -2,6 +2,10 @@ package jenkins.plugins.elastest.submitters;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -43,4 +47,39 @@ public class SubmitterFactoryTest {
       throw e;
     }
   }
+
+  @Test
+  public void sameDestinationSharesSubmitter() throws Exception {
+    ElasTestSubmitter first = SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "shared", 1234, "key", null, null);
+    ElasTestSubmitter second = SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "shared", 1234, "key", null, null);
+
+    assertSame(first, second);
+    SubmitterFactory.release(first);
+    SubmitterFactory.release(second);
+  }
+
+  @Test
+  public void differentDestinationsKeepTheirSubmitters() throws Exception {
+    ElasTestSubmitter first = SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "first", 1234, "key", null, null);
+    ElasTestSubmitter second = SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "second", 1234, "key", null, null);
+
+    assertNotSame(first, second);
+    assertSame(first, SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "first", 1234, "key", null, null));
+    SubmitterFactory.release(first);
+    SubmitterFactory.release(first);
+    SubmitterFactory.release(second);
+  }
+
+  @Test
+  public void idleSubmitterIsEvictedOnlyWhenReleased() throws Exception {
+    ElasTestSubmitter used = SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "used", 1234, "key", null, null);
+    ElasTestSubmitter idle = SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "idle", 1234, "key", null, null);
+    SubmitterFactory.release(idle);
+    long later = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SubmitterFactory.IDLE_EVICTION_MILLIS);
+
+    SubmitterFactory.evictIdle(later);
+
+    assertSame(used, SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "used", 1234, "key", null, null));
+    assertNotSame(idle, SubmitterFactory.getInstance(SubmitterType.LOGSTASH, "idle", 1234, "key", null, null));
+  }
 }
@@ -0,0 +1,30 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BackoffTest {
+
+    @Test
+    public void delayGrowsExponentiallyWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(250, 500, Backoff.delay(1, 500, 8000));
+            assertBetween(500, 1000, Backoff.delay(2, 500, 8000));
+            assertBetween(1000, 2000, Backoff.delay(3, 500, 8000));
+        }
+    }
+
+    @Test
+    public void delayIsCapped() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(4000, 8000, Backoff.delay(10, 500, 8000));
+            assertBetween(4000, 8000, Backoff.delay(100, 500, 8000));
+        }
+    }
+
+    private static void assertBetween(long min, long max, long delay) {
+        assertTrue(delay + " not in [" + min + ", " + max + "]",
+                delay >= min && delay <= max);
+    }
+}
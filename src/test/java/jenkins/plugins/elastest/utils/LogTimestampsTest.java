@@ -0,0 +1,35 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LogTimestampsTest {
+
+    @Test
+    public void formatIsoUtcWithMillis() {
+        assertEquals("2019-01-10T09:30:00.125Z",
+                LogTimestamps.format(1547112600125L));
+        assertEquals("2019-01-10T09:30:00.000Z",
+                LogTimestamps.format(1547112600000L));
+    }
+
+    @Test
+    public void formatReusesValueOfSameMillisecond() {
+        String first = LogTimestamps.format(1547112600125L);
+
+        assertSame(first, LogTimestamps.format(1547112600125L));
+    }
+
+    @Test
+    public void nowNeverGoesBackwards() {
+        long last = LogTimestamps.now();
+        for (int i = 0; i < 1000; i++) {
+            long now = LogTimestamps.now();
+            assertTrue(now >= last);
+            last = now;
+        }
+    }
+}